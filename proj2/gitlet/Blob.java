@@ -1,41 +1,203 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import static gitlet.Utils.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.Date;
-import java.util.Formatter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
+/** A snapshot of the contents of a file. Blob contents are kept raw in the
+ *  object store, and are hashed and copied through a fixed-size buffer, so
+ *  memory use stays flat however big the file is. Contents stored raw in a
+ *  pack or a big loose file are copied from a memory mapping of it instead
+ *  (see MappedFiles), straight from the page cache.
+ *  @author Boheng Mao
+ */
 public class Blob implements Serializable {
+    /** Blobs written by older versions of gitlet are serialized Blob objects
+     *  holding their content in byteContent. Keeping their UID lets migrate
+     *  still read them. */
+    private static final long serialVersionUID = 3026591589028305380L;
+    /** Size of the buffer used to hash and copy blob contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     /** The ID of this blob. */
     public String id;
     /** The file that has the content of this blob. */
     public File file;
     /** The path of the blob's corresponding file. */
     public String filePath;
-    /** The byte array representation of the blob's file content. */
+    /** The content of a blob written by an older version of gitlet. */
     public byte[] byteContent;
 
+    /** Creates the blob for the current contents of FILE without storing it. */
     public Blob(File file) {
+        this(file, null);
+    }
+
+    /** Creates the blob for FILE, copying its contents to COPY unless COPY
+     *  is null. */
+    private Blob(File file, File copy) {
         this.file = file;
         this.filePath = file.getPath();
-        this.byteContent = readContents(file);
-        this.id = createID();
+        this.id = hash(file, copy);
+    }
+
+    private Blob(String id) {
+        this.id = id;
+    }
+
+    /** Creates the blob for FILE and stores its contents, reading FILE once. */
+    public static Blob store(File file) {
+        File tmp = ObjectStore.tempFile();
+        Blob b = new Blob(file, tmp);
+        ObjectStore.moveInto(ObjectType.BLOB, b.id, tmp);
+        return b;
     }
 
-    /** Creates SHA1-ID for this blob. */
-    private String createID() {
-        return sha1(byteContent, file.getName());
+    /** Creates and stores the blob with CONTENTS for FILE, which need not
+     *  exist yet, as for a file produced by a merge. */
+    public static Blob store(File file, byte[] contents) {
+        Blob b = new Blob(sha1(contents, file.getName()));
+        b.file = file;
+        b.filePath = file.getPath();
+        if (!ObjectStore.contains(ObjectType.BLOB, b.id)) {
+            ObjectStore.write(ObjectType.BLOB, b.id, contents);
+        }
+        return b;
     }
 
-    public void saveToFile() {
-        File outfile = join(Repository.BLOB_FOLDER, this.id);
-        writeObject(outfile, this);
+    /** Returns the SHA-1 ID of the contents and name of FILE, copying the
+     *  contents to COPY as they are hashed unless COPY is null. The copy is
+     *  compressed as configured for the repository. The copy is closed
+     *  before the end of the try, so that its length is final. */
+    @SuppressWarnings("try")
+    private static String hash(File file, File copy) {
+        Compression compression = copy == null ? null : Compression.configured();
+        long length = 0;
+        long expectedLength = file.length();
+        try (FileChannel in = FileChannel.open(file.toPath());
+             OutputStream out = copy == null ? null : compression.compressor(
+                     Files.newOutputStream(copy.toPath()), expectedLength)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer.array(), 0, buffer.limit());
+                if (out != null) {
+                    out.write(buffer.array(), 0, buffer.limit());
+                }
+                length += buffer.limit();
+                buffer.clear();
+            }
+            md.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            byte[] digest = md.digest();
+            Trace.count(Trace.Counter.SHA1, 1);
+            Trace.count(Trace.Counter.BYTES_READ, length);
+            if (out != null) {
+                out.close();
+                if (compression != Compression.NONE && length != expectedLength) {
+                    Compression.setLength(copy, length);
+                }
+                Trace.count(Trace.Counter.BYTES_WRITTEN, copy.length());
+            }
+            return bytesToHex(digest, 0, digest.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
     }
 
+    /** Returns the stored blob with ID. */
     public static Blob getFromFIle(String id) {
-        File infile = join(Repository.BLOB_FOLDER, id);
-        return readObject(infile, Blob.class);
+        return new Blob(id);
+    }
+
+    /** Writes the contents of this blob to TARGET, creating or overwriting
+     *  it, and the directories it is in, as needed. */
+    public void writeTo(File target) {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        byte[] cached = ObjectCache.get(id, byte[].class);
+        if (cached != null) {
+            writeContents(target, (Object) cached);
+            return;
+        }
+        ByteBuffer mapped = mapContents();
+        if (mapped != null) {
+            // Written straight from the page cache, with no copy on the heap.
+            Trace.count(Trace.Counter.BYTES_WRITTEN, mapped.remaining());
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (mapped.hasRemaining()) {
+                    out.write(mapped);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        try (InputStream in = openContents();
+             OutputStream out = Files.newOutputStream(target.toPath())) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+                Trace.count(Trace.Counter.BYTES_WRITTEN, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the entire contents of this blob as a byte array. The array
+     *  may be shared through the ObjectCache and must not be modified. */
+    public byte[] readContents() {
+        byte[] cached = ObjectCache.get(id, byte[].class);
+        if (cached != null) {
+            return cached;
+        }
+        ByteBuffer mapped = mapContents();
+        if (mapped != null) {
+            byte[] contents = new byte[mapped.remaining()];
+            mapped.get(contents);
+            Trace.count(Trace.Counter.BYTES_READ, contents.length);
+            ObjectCache.put(id, contents, contents.length);
+            return contents;
+        }
+        try (InputStream in = openContents()) {
+            byte[] contents = in.readAllBytes();
+            ObjectCache.put(id, contents, contents.length);
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of this blob as a buffer over a memory mapping
+     *  of the file holding them, or null if they are not stored raw in a
+     *  file worth mapping. */
+    private ByteBuffer mapContents() {
+        return ObjectStore.map(ObjectType.BLOB, id);
+    }
+
+    /** Returns a stream over the contents of this blob. Contents are always
+     *  returned as stored, whatever bytes they start with: blobs of older
+     *  versions, which were serialized, only exist in repositories that
+     *  commands refuse to run on until migrate converts them. */
+    private InputStream openContents() {
+        return new BufferedInputStream(ObjectStore.open(ObjectType.BLOB, id), BUFFER_SIZE);
     }
 
 }
@@ -3,8 +3,17 @@ package gitlet;
 import java.io.File;
 import static gitlet.Utils.*;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class Branch implements Serializable{
+    /** Branches written by older versions of gitlet are Java-serialized;
+     *  keeping their UID lets them still be read. */
+    private static final long serialVersionUID = -2812381490100218075L;
+    /** Format version of encoded branches. */
+    static final int VERSION = 1;
     public String branchName;
     /** Stores the ID of the last commit in this Branch. */
     public String commitID;
@@ -19,13 +28,52 @@ public class Branch implements Serializable{
         this.commitID = commit.id;
     }
 
+    private Branch(String branchName, String commitID) {
+        this.branchName = branchName;
+        this.commitID = commitID;
+    }
+
     public void saveToFile() {
         File outfile = join(Repository.BRANCH_FOLDER, this.branchName);
-        writeObject(outfile, this);
+        Transaction.write(outfile, encode());
     }
 
     public static Branch getFromFile(String currentBranchName) {
         File infile = join(Repository.BRANCH_FOLDER, currentBranchName);
-        return readObject(infile, Branch.class);
+        return decode(Transaction.read(infile));
+    }
+
+    /** Returns the names of all branches in lexicographic order, including
+     *  remote-tracking branches such as origin/master, which fetch keeps in
+     *  a folder per remote. */
+    public static List<String> names() {
+        Set<String> result = new TreeSet<>(plainFilenamesIn(Repository.BRANCH_FOLDER));
+        File[] remotes = Repository.BRANCH_FOLDER.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String name : plainFilenamesIn(remote)) {
+                    result.add(remote.getName() + "/" + name);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the compact binary encoding of this branch. */
+    public byte[] encode() {
+        return new Codec.Writer('B', VERSION)
+                .writeString(branchName)
+                .writeId(commitID)
+                .toByteArray();
+    }
+
+    /** Returns the branch encoded in BYTES, which may also be a branch
+     *  serialized by an older version of gitlet. */
+    public static Branch decode(byte[] bytes) {
+        if (Codec.isSerialized(bytes)) {
+            return deserialize(bytes, Branch.class);
+        }
+        Codec.Reader in = new Codec.Reader(bytes, 'B', VERSION);
+        return new Branch(in.readString(), in.readId());
     }
 }
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Bloom filters of the paths changed by each commit, kept in
+ *  objects/info/changed-paths next to the commit-graph, so that a log
+ *  limited to one path can pass over the commits that did not touch it
+ *  without reading them.
+ *
+ *  The filter of a commit holds every file that differs from its first
+ *  parent, or every file of the initial commit or of a commit on the
+ *  Shallow boundary, and every directory above one, as paths relative to
+ *  the working directory. Each path sets NUM_HASHES bits chosen from two
+ *  seeded MurmurHash3 values, and there are BITS_PER_PATH bits per path,
+ *  so about one unchanged path in a hundred is a false positive, which then
+ *  costs two tree lookups. A commit that changes more than MAX_PATHS paths
+ *  has no bits and matches every path.
+ *
+ *  The file is the magic "GCBF" and a version, followed by one record per
+ *  commit: its raw ID, the length of its filter in bytes, or -1 if it
+ *  changes too many paths, and the filter. Records are only appended.
+ *  Filters are written when a commit is saved or received; write-changed-paths
+ *  and gc add those of commits made before the file existed.
+ *  @author Boheng Mao
+ */
+class ChangedPaths {
+    static final int MAGIC = 0x47434246;
+    static final int VERSION = 1;
+    static final File FILE = join(Repository.INFO_FOLDER, "changed-paths");
+    static final int NUM_HASHES = 7;
+    static final int BITS_PER_PATH = 10;
+    static final int MAX_PATHS = 512;
+    private static final int SEED1 = 0x293ae76f, SEED2 = 0x7e646e2c;
+    /** The filter of a commit that changes too many paths. Compared by
+     *  identity, so that it differs from the empty filter of a commit that
+     *  changes nothing. */
+    private static final byte[] EVERY_PATH = new byte[0];
+
+    /** The filter of every commit that has one, by commit ID. */
+    private final Map<String, byte[]> filters = new HashMap<>();
+
+    private ChangedPaths() {
+    }
+
+    /** Returns the filters of the current repository. */
+    static ChangedPaths load() {
+        ChangedPaths result = new ChangedPaths();
+        if (!FILE.isFile()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(FILE.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Bad changed-paths file.");
+            }
+            byte[] raw = new byte[PackFile.ID_BYTES];
+            while (true) {
+                in.readFully(raw);
+                int length = in.readInt();
+                byte[] filter = EVERY_PATH;
+                if (length >= 0) {
+                    filter = new byte[length];
+                    in.readFully(filter);
+                }
+                result.filters.put(bytesToHex(raw, 0, raw.length), filter);
+            }
+        } catch (EOFException excp) {
+            // End of the file, or of a record cut short by a crash, whose
+            // commit is simply read in full until it is backfilled.
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns false if the commit with ID certainly leaves the file or
+     *  directory at the absolute PATH as its first parent has it, and true
+     *  if it may change it or has no filter. */
+    boolean mayChange(String id, String path) {
+        byte[] filter = filters.get(id);
+        if (filter == null || filter == EVERY_PATH) {
+            return true;
+        }
+        if (filter.length == 0) {
+            return false;
+        }
+        for (int bit : bits(relativePath(path), filter.length * 8)) {
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Computes and appends the filters of COMMITS, which must already be
+     *  stored along with their parents, unless on the shallow boundary. */
+    static void record(List<Commit> commits) {
+        Shallow shallow = Shallow.load();
+        Repository.INFO_FOLDER.mkdir();
+        boolean fresh = !FILE.exists();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(FILE.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (Commit commit : commits) {
+                byte[] filter = filter(commit, shallow.parents(commit));
+                out.write(hexToBytes(commit.id));
+                out.writeInt(filter == EVERY_PATH ? -1 : filter.length);
+                out.write(filter);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends the filters of every stored commit that has none, and
+     *  returns how many were added. */
+    static int backfill() {
+        ChangedPaths existing = load();
+        List<Commit> missing = new ArrayList<>();
+        for (String id : ObjectStore.list(ObjectType.COMMIT)) {
+            if (!existing.filters.containsKey(id)) {
+                missing.add(Commit.getFromFile(id));
+            }
+        }
+        if (!missing.isEmpty()) {
+            record(missing);
+        }
+        return missing.size();
+    }
+
+    /** Returns the filter of the paths COMMIT changes from the first of
+     *  PARENTS. Only the trees along the changed paths are read. */
+    private static byte[] filter(Commit commit, List<String> parents) {
+        String parentTree = parents.isEmpty() ? null
+                : Commit.getFromFile(parents.get(0)).treeID();
+        Set<String> paths = new TreeSet<>();
+        for (String path : Tree.diff(parentTree, commit.treeID()).keySet()) {
+            String relative = relativePath(path);
+            paths.add(relative);
+            for (int slash = relative.lastIndexOf('/'); slash > 0;
+                 slash = relative.lastIndexOf('/', slash - 1)) {
+                paths.add(relative.substring(0, slash));
+            }
+            if (paths.size() > MAX_PATHS) {
+                return EVERY_PATH;
+            }
+        }
+        byte[] filter = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        for (String path : paths) {
+            for (int bit : bits(path, filter.length * 8)) {
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        return filter;
+    }
+
+    /** Returns the positions of the bits the relative PATH sets in a
+     *  filter of SIZE bits. */
+    private static int[] bits(String path, int size) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmur3(SEED1, key);
+        int h2 = murmur3(SEED2, key);
+        int[] result = new int[NUM_HASHES];
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            result[i] = Integer.remainderUnsigned(h1 + i * h2, size);
+        }
+        return result;
+    }
+
+    /** Returns the absolute PATH relative to the working directory, with
+     *  forward slashes, so that filters do not depend on where the
+     *  repository is. */
+    private static String relativePath(String path) {
+        String relative = path.substring(Repository.CWD.getPath().length() + 1);
+        return relative.replace(File.separatorChar, '/');
+    }
+
+    /** Returns the 32-bit MurmurHash3 of DATA with SEED. */
+    static int murmur3(int seed, byte[] data) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i += 1) {
+            int k = (data[4 * i] & 0xff) | (data[4 * i + 1] & 0xff) << 8
+                    | (data[4 * i + 2] & 0xff) << 16 | (data[4 * i + 3] & 0xff) << 24;
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        int tail = blocks * 4;
+        int remaining = data.length & 3;
+        if (remaining > 0) {
+            // The 1 to 3 bytes left over form the last block, little-endian.
+            for (int i = remaining - 1; i >= 0; i -= 1) {
+                k ^= (data[tail + i] & 0xff) << (8 * i);
+            }
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            h ^= k;
+        }
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The compact binary encoding of persisted gitlet objects.
+ *
+ *  An encoded object starts with the byte 'G', a byte naming its class and a
+ *  varint format version. Integers are written as varints (LEB128, with
+ *  signed values zigzag-encoded), strings as a varint length followed by
+ *  their UTF-8 bytes, and SHA-1 IDs as their 20 raw bytes. Maps of file
+ *  paths are written in order, each path as the length of the prefix it
+ *  shares with the previous path followed by the rest of it, since the
+ *  paths of a repository mostly share the same leading directories.
+ *
+ *  Objects written before this encoding existed are Java-serialized; they
+ *  start with the serialization stream magic instead, see isSerialized.
+ *  @author Boheng Mao
+ */
+class Codec {
+    /** The first byte of every encoded object. */
+    static final int MAGIC = 'G';
+    /** The first bytes of a Java serialization stream. */
+    private static final byte[] SERIAL_MAGIC = {(byte) 0xac, (byte) 0xed, 0x00, 0x05};
+
+    /** Returns true if BYTES starts like a Java-serialized object. */
+    static boolean isSerialized(byte[] bytes) {
+        if (bytes.length < SERIAL_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < SERIAL_MAGIC.length; i += 1) {
+            if (bytes[i] != SERIAL_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Encodes the fields of one object. */
+    static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /** A writer for an object of the class named by TAG in format
+         *  VERSION. */
+        Writer(char tag, int version) {
+            out.write(MAGIC);
+            out.write(tag);
+            writeVarint(version);
+        }
+
+        Writer writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Writer writeSignedVarint(long value) {
+            return writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        Writer writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        Writer writeId(String id) {
+            byte[] bytes = hexToBytes(id);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /** Writes MAP, a mapping of file paths to IDs in path order. */
+        Writer writePathMap(Map<String, String> map) {
+            writeVarint(map.size());
+            String previous = "";
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                String path = entry.getKey();
+                int shared = 0;
+                int limit = Math.min(previous.length(), path.length());
+                while (shared < limit && previous.charAt(shared) == path.charAt(shared)) {
+                    shared += 1;
+                }
+                if (shared > 0 && Character.isHighSurrogate(path.charAt(shared - 1))) {
+                    shared -= 1;
+                }
+                writeVarint(shared);
+                writeString(path.substring(shared));
+                writeId(entry.getValue());
+                previous = path;
+            }
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /** Decodes the fields of one object. */
+    static class Reader {
+        private final byte[] bytes;
+        private int pos;
+        /** The format version of the object. */
+        final int version;
+
+        /** A reader for BYTES, which must hold an object of the class named
+         *  by TAG in format MAXVERSION or older. */
+        Reader(byte[] bytes, char tag, int maxVersion) {
+            this.bytes = bytes;
+            if (bytes.length < 2 || bytes[0] != MAGIC || bytes[1] != tag) {
+                throw error("Corrupt gitlet object.");
+            }
+            pos = 2;
+            version = (int) readVarint();
+            if (version > maxVersion) {
+                throw error("Object format %d is newer than this gitlet.", version);
+            }
+        }
+
+        long readVarint() {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[pos++];
+                result |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+        }
+
+        long readSignedVarint() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarint();
+            String result = new String(bytes, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return result;
+        }
+
+        String readId() {
+            String result = bytesToHex(bytes, pos, PackFile.ID_BYTES);
+            pos += PackFile.ID_BYTES;
+            return result;
+        }
+
+        /** Reads a mapping of file paths to IDs into MAP and returns it. */
+        Map<String, String> readPathMap(Map<String, String> map) {
+            int size = (int) readVarint();
+            String previous = "";
+            for (int i = 0; i < size; i += 1) {
+                int shared = (int) readVarint();
+                String path = previous.substring(0, shared) + readString();
+                map.put(path, readId());
+                previous = path;
+            }
+            return map;
+        }
+    }
+}
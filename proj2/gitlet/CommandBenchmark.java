@@ -0,0 +1,231 @@
+package gitlet;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import static gitlet.Utils.*;
+
+/** Measures the throughput and allocation rate of gitlet commands on a
+ *  SyntheticRepository: add, commit, status, checkout of a branch, merge,
+ *  and finding the split point of a merge.
+ *
+ *  Usage: java gitlet.CommandBenchmark [FILES [FILE_SIZE [DEPTH [BRANCHES]]]]
+ *
+ *  As a microbenchmark harness would, the benchmarks run in a fresh JVM,
+ *  forked with a temporary directory as its working directory, where the
+ *  repository is generated; the directory is deleted afterwards. Commands
+ *  run in that JVM through Main.run, as the Daemon runs them, so each takes
+ *  the repository lock and commits its transaction as usual, but JVM
+ *  start-up is left out. Each benchmark runs WARMUP_ITERATIONS iterations,
+ *  so the JIT compiles the commands, and then MEASURED_ITERATIONS, each
+ *  running the command until ITERATION_TIME has been spent in it. Work that
+ *  sets up a command, such as changing the file that add stages, is not
+ *  timed.
+ *
+ *  Allocation is the growth of the heap plus what garbage collections
+ *  freed, so it counts the fork-join threads of a command as well as the
+ *  calling thread.
+ *  @author Boheng Mao
+ */
+public class CommandBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    /** Time spent in the command in each iteration, in nanoseconds. */
+    private static final long ITERATION_TIME = 1_000_000_000L;
+    /** Argument telling main that it runs in the forked JVM. */
+    private static final String FORKED = "--forked";
+
+    /** Bytes freed by garbage collections so far, and the number of
+     *  collections that freed them. */
+    private static volatile long collected;
+    private static volatile long collections;
+
+    /** A command to measure. */
+    private interface Step {
+        void run();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals(FORKED)) {
+            runBenchmarks(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fileSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int branches = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            List<String> command = new ArrayList<>(List.of(
+                    join(new File(System.getProperty("java.home")), "bin", "java").getPath(),
+                    "-cp", System.getProperty("java.class.path"),
+                    CommandBenchmark.class.getName(), FORKED, Integer.toString(files),
+                    Integer.toString(fileSize), Integer.toString(depth),
+                    Integer.toString(branches)));
+            Process process = new ProcessBuilder(command).directory(dir).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw error("The benchmark JVM failed.");
+            }
+        } finally {
+            delete(dir.toPath());
+        }
+    }
+
+    /** Generates a repository of the given shape in the working directory
+     *  and runs every benchmark on it, printing a table of the results. */
+    private static void runBenchmarks(int files, int fileSize, int depth, int branches) {
+        countCollections();
+        SyntheticRepository repo = new SyntheticRepository(files, fileSize, depth, branches);
+        long start = System.nanoTime();
+        repo.build();
+        System.out.printf("%d files of %d bytes, %d commits on master, %d branches;"
+                        + " generated in %.1f s\n",
+                files, fileSize, depth, branches, (System.nanoTime() - start) / 1e9);
+        System.out.printf("%-12s %16s %10s %14s %14s\n",
+                "benchmark", "ops/s", "ms/op", "alloc MB/s", "alloc KB/op");
+        System.out.printf("------------------------------------------------------------------------\n");
+
+        measure("status", () -> { }, () -> SyntheticRepository.run("status"));
+        // The file changed for the next add or commit, going round them all.
+        int[] file = {0};
+        Step change = () -> {
+            file[0] = (file[0] + 1) % files;
+            repo.change(file[0]);
+        };
+        measure("add", change,
+                () -> SyntheticRepository.run("add", repo.file(file[0]).getName()));
+        measure("commit", () -> {
+            change.run();
+            SyntheticRepository.run("add", repo.file(file[0]).getName());
+        }, () -> SyntheticRepository.run("commit", "Benchmark commit " + file[0]));
+        if (branches == 0) {
+            return;
+        }
+        measure("checkout", () -> { }, () -> SyntheticRepository.run("checkout",
+                readContentsAsString(Repository.BRANCH).equals("master") ? "topic0" : "master"));
+        if (!readContentsAsString(Repository.BRANCH).equals("master")) {
+            SyntheticRepository.run("checkout", "master");
+        }
+        measure("split-point", () -> { }, () -> Repository.findSplitPoint("topic0"));
+        String head = readContentsAsString(Repository.HEAD);
+        measure("merge", () -> SyntheticRepository.run("reset", head),
+                () -> SyntheticRepository.run("merge", "topic0"));
+    }
+
+    /** Runs the benchmark NAME, calling SETUP untimed before each call of
+     *  STEP, and prints its results. */
+    private static void measure(String name, Step setup, Step step) {
+        PrintStream stdout = System.out;
+        System.setOut(SyntheticRepository.DISCARD);
+        double[] throughputs = new double[MEASURED_ITERATIONS];
+        long ops = 0;
+        long time = 0;
+        long allocated = 0;
+        try {
+            for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i += 1) {
+                long iterationOps = 0;
+                long iterationTime = 0;
+                long iterationAllocated = 0;
+                while (iterationTime < ITERATION_TIME) {
+                    setup.run();
+                    long before = allocatedBytes();
+                    long start = System.nanoTime();
+                    step.run();
+                    iterationTime += System.nanoTime() - start;
+                    iterationAllocated += allocatedBytes() - before;
+                    iterationOps += 1;
+                }
+                if (i >= WARMUP_ITERATIONS) {
+                    throughputs[i - WARMUP_ITERATIONS] = iterationOps / (iterationTime / 1e9);
+                    ops += iterationOps;
+                    time += iterationTime;
+                    allocated += iterationAllocated;
+                }
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+        double mean = 0;
+        for (double throughput : throughputs) {
+            mean += throughput / throughputs.length;
+        }
+        double variance = 0;
+        for (double throughput : throughputs) {
+            variance += (throughput - mean) * (throughput - mean) / (throughputs.length - 1);
+        }
+        System.out.printf("%-12s %8.1f +- %-5.1f %10.2f %14.1f %14.1f\n", name, mean,
+                Math.sqrt(variance), time / 1e6 / ops, allocated / 1e6 / (time / 1e9),
+                allocated / 1e3 / ops);
+    }
+
+    /** Starts adding the bytes freed by each garbage collection to
+     *  collected. */
+    private static void countCollections() {
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) bean).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(
+                        GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                        (CompositeData) notification.getUserData());
+                long freed = 0;
+                for (MemoryUsage usage : info.getGcInfo().getMemoryUsageBeforeGc().values()) {
+                    freed += usage.getUsed();
+                }
+                for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+                    freed -= usage.getUsed();
+                }
+                synchronized (CommandBenchmark.class) {
+                    collected += freed;
+                    collections += 1;
+                }
+            }, null, null);
+        }
+    }
+
+    /** Returns the number of bytes allocated on the heap so far, waiting
+     *  briefly for the notifications of finished collections. */
+    private static long allocatedBytes() {
+        long deadline = System.nanoTime() + 100_000_000L;
+        while (collections < collectionCount() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        synchronized (CommandBenchmark.class) {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() + collected;
+        }
+    }
+
+    /** Returns the number of garbage collections so far. */
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /** Deletes ROOT and everything under it. */
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.io.Serializable;
 import java.util.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.ZoneOffset;
 
 /** Represents a gitlet commit object.
  *  TODO: It's a good idea to give a description here of what else this Class
@@ -16,6 +17,11 @@ import java.text.SimpleDateFormat;
  *  @author TODO
  */
 public class Commit implements Serializable {
+    /** Commits written by older versions of gitlet are Java-serialized;
+     *  keeping their UID lets them still be read. */
+    private static final long serialVersionUID = -1601254619390917229L;
+    /** Format version of encoded commits. */
+    static final int VERSION = 2;
     /**
      * TODO: add instance variables here.
      *
@@ -33,14 +39,20 @@ public class Commit implements Serializable {
     public String id;
     /** The two parents of this commit stored as ID. */
     public List<String> parentList = new ArrayList<>();
-    /** A mapping of file paths to blob ids (TreeMap?). */
-    public Map<String, String> blobProjection = new TreeMap<>();
+    /** The ID of the root tree of this commit. Null for commits written
+     *  before trees existed until treeID() is called. */
+    private String treeID;
+    /** A mapping of file paths to blob ids. Commits written before trees
+     *  existed store it; for the others it is read from the tree on first
+     *  use by blobProjection(). */
+    private Map<String, String> blobProjection;
 
     /** Creates the initial commit. */
     public Commit() {
         this.message = "initial commit";
         this.currentTime = new Date(0);
         this.timeStamp = createTimeStamp(currentTime);
+        this.treeID = Tree.write(new TreeMap<>());
         this.id = createID();
     }
 
@@ -49,45 +61,187 @@ public class Commit implements Serializable {
         this.currentTime = new Date();
         this.timeStamp = createTimeStamp(currentTime);
         this.parentList.add(parent.id);
-        this.blobProjection = parent.blobProjection;
+        this.treeID = parent.treeID();
         this.id = createID();
     }
 
+    private Commit(String id) {
+        this.id = id;
+    }
+
     /** Create a timestamp given a Date object for each commit. */
     private String createTimeStamp(Date currentTime) {
+        return createTimeStamp(currentTime, TimeZone.getDefault());
+    }
+
+    /** Create a timestamp for CURRENTTIME as seen in time zone ZONE. */
+    private static String createTimeStamp(Date currentTime, TimeZone zone) {
         DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+        dateFormat.setTimeZone(zone);
         return dateFormat.format(currentTime);
     }
 
-    /** Serialize and safe the commit object to the commits directory. */
+    /** Create the timestamp of a commit made at MILLIS milliseconds after the
+     *  epoch in the time zone OFFSETMINUTES minutes ahead of UTC. */
+    static String createTimeStamp(long millis, int offsetMinutes) {
+        return createTimeStamp(new Date(millis),
+                TimeZone.getTimeZone(ZoneOffset.ofTotalSeconds(offsetMinutes * 60)));
+    }
+
+    /** Returns the UTC offset in minutes that timeStamp was written in. */
+    int timeStampOffset() {
+        String zone = timeStamp.substring(timeStamp.length() - 5);
+        int minutes = Integer.parseInt(zone.substring(1, 3)) * 60
+                + Integer.parseInt(zone.substring(3, 5));
+        return zone.charAt(0) == '-' ? -minutes : minutes;
+    }
+
+    /** Returns the ID of the root tree of this commit. For commits written
+     *  before trees existed, the tree is built from blobProjection and
+     *  stored the first time this is called. */
+    public String treeID() {
+        if (treeID == null) {
+            blobProjection = workingPaths(blobProjection);
+            treeID = Tree.write(blobProjection);
+        }
+        return treeID;
+    }
+
+    /** Returns FILES, a mapping of absolute paths to blob IDs, with every
+     *  path moved into the working directory. Commits written before trees
+     *  existed name their files by absolute path, and the original gitlet
+     *  only tracked files directly in the working directory, so a path
+     *  outside it, left by a repository that was moved since, stands for
+     *  the file of the same name in the working directory. */
+    static Map<String, String> workingPaths(Map<String, String> files) {
+        String prefix = Repository.CWD.getPath() + File.separator;
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            if (!path.startsWith(prefix)) {
+                path = join(Repository.CWD, new File(path).getName()).getPath();
+            }
+            result.put(path, file.getValue());
+        }
+        return result;
+    }
+
+    /** Returns a mapping of the path of every file in this commit to its
+     *  blob ID. This reads the whole tree; use blobID for single paths. */
+    public Map<String, String> blobProjection() {
+        if (blobProjection == null) {
+            blobProjection = Tree.files(treeID);
+        }
+        return blobProjection;
+    }
+
+    /** Returns the ID of the blob tracked at PATH, or null if this commit
+     *  does not track PATH. */
+    public String blobID(String path) {
+        if (blobProjection != null) {
+            return blobProjection.get(path);
+        }
+        return Tree.lookup(treeID, path);
+    }
+
+    /** Applies CHANGES, a mapping of paths to their new blob IDs or to null
+     *  for removed paths, to the tree of this commit. Only the trees along
+     *  the changed paths are rewritten. */
+    public void updateTree(SortedMap<String, String> changes) {
+        treeID = Tree.update(treeID(), changes);
+        blobProjection = null;
+    }
+
+    /** Encode and safe the commit object to the commits directory,
+     *  and record it in the commit-graph, the changed-path filters and the
+     *  commit indexes. A commit that is already stored is left alone, so
+     *  it is never indexed twice. */
     public void saveToFile() {
-        File outfile = join(Repository.COMMIT_FOLDER, this.id);
-        writeObject(outfile, this);
+        if (ObjectStore.contains(ObjectType.COMMIT, this.id)) {
+            return;
+        }
+        ObjectStore.write(ObjectType.COMMIT, this.id, encode());
+        CommitGraph.append(this);
+        ChangedPaths.record(List.of(this));
+        CommitIndex.add(this);
+        MessageIndex.update();
+        CommitIdIndex.update();
     }
 
     public static Commit getFromFile(String id) {
-        File infile = join(Repository.COMMIT_FOLDER, id);
-        return readObject(infile, Commit.class);
+        return ObjectStore.readObject(ObjectType.COMMIT, id, Commit.class, Commit::decode);
+    }
+
+    /** Returns the compact binary encoding of this commit: its ID, message,
+     *  time in milliseconds and the UTC offset of its timestamp in minutes,
+     *  then its parents and the ID of its tree. */
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer('C', VERSION)
+                .writeId(id)
+                .writeString(message)
+                .writeSignedVarint(currentTime.getTime())
+                .writeSignedVarint(timeStampOffset())
+                .writeVarint(parentList.size());
+        for (String parent : parentList) {
+            out.writeId(parent);
+        }
+        return out.writeId(treeID()).toByteArray();
+    }
+
+    /** Returns the commit encoded in BYTES, which may also be a commit
+     *  serialized by an older version of gitlet. */
+    public static Commit decode(byte[] bytes) {
+        if (Codec.isSerialized(bytes)) {
+            return deserialize(bytes, Commit.class);
+        }
+        Codec.Reader in = new Codec.Reader(bytes, 'C', VERSION);
+        Commit commit = new Commit(in.readId());
+        commit.message = in.readString();
+        commit.currentTime = new Date(in.readSignedVarint());
+        int offset = (int) in.readSignedVarint();
+        commit.timeStamp = createTimeStamp(commit.currentTime.getTime(), offset);
+        int parentCount = (int) in.readVarint();
+        for (int i = 0; i < parentCount; i += 1) {
+            commit.parentList.add(in.readId());
+        }
+        if (in.version < 2) {
+            commit.blobProjection = in.readPathMap(new TreeMap<>());
+        } else {
+            commit.treeID = in.readId();
+        }
+        return commit;
     }
 
     /** Create and return a ID for each commit. */
     public String createID() {
-        return sha1(message, parentList.toString(), blobProjection.toString(), timeStamp);
+        return sha1(message, parentList.toString(), treeID(), timeStamp);
+    }
+
+    /** Returns true if ID is the hash of this commit, as decoded from an
+     *  object received from another repository. Commits made before trees
+     *  have IDs hashed over the paths of their files in their own
+     *  repository, so they can never be checked. */
+    boolean hasValidID() {
+        return treeID != null && id.equals(createID());
     }
 
     public void printCommit() {
+        printCommit(id, parentList, timeStamp, message);
+    }
+
+    /** Prints the log entry of the commit with ID, PARENTS, TIMESTAMP and
+     *  MESSAGE. */
+    static void printCommit(String id, List<String> parents, String timeStamp, String message) {
         System.out.println("===");
-        System.out.println("commit " + this.id);
-        if (this.parentList.size() > 1) {
-            String parentString1 = parentList.get(0);
-            String parentString2 = parentList.get(1);
-            Commit parentCommit1 = getFromFile(parentString1);
-            Commit parentCommit2 = getFromFile(parentString2);
-            System.out.println("Merge: " + parentCommit1.id.substring(0, 7) +
-                    " " + parentCommit2.id.substring(0, 7));
+        System.out.println("commit " + id);
+        if (parents.size() > 1) {
+            String parentString1 = parents.get(0);
+            String parentString2 = parents.get(1);
+            System.out.println("Merge: " + parentString1.substring(0, 7) +
+                    " " + parentString2.substring(0, 7));
         }
-        System.out.println("Date: " + this.timeStamp);
-        System.out.println(this.message);
+        System.out.println("Date: " + timeStamp);
+        System.out.println(message);
         System.out.println();
     }
 
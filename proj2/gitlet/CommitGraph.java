@@ -0,0 +1,449 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** The commit-graph of a repository: the parents and generation number of
+ *  every commit, kept in objects/info/commit-graph so that history can be
+ *  walked without deserializing any commits.
+ *
+ *  The generation of the initial commit is 1, and the generation of any other
+ *  commit is one more than the largest generation of its parents, so a commit
+ *  can never be an ancestor of a commit with a smaller or equal generation.
+ *
+ *  The file is the magic "GCGR" and a version, followed by one RECORD_SIZE
+ *  record per commit: its raw ID, its number of parents, up to two raw
+ *  parent IDs (zeros if absent) and its generation. Records are only
+ *  appended, parents before children. Commits made before the file existed
+ *  are added the first time they are asked for. Version 1 files, whose
+ *  records held only the parents there were, are still read, and are
+ *  rewritten in the current version by the next commit.
+ *
+ *  A new commit is appended by append, which reads the records backwards
+ *  from the end of the file only until it has found its parents, so making
+ *  a commit on top of a recent one never reads the whole graph.
+ *
+ *  In a shallow repository, the commits on the Shallow boundary have no
+ *  parents in the graph, so walks stop at them.
+ *  @author Boheng Mao
+ */
+class CommitGraph {
+    static final int MAGIC = 0x47434752;
+    static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_BYTES = PackFile.ID_BYTES;
+    static final int RECORD_SIZE = ID_BYTES + 1 + 2 * ID_BYTES + 4;
+    /** Number of records append reads from the file at a time. */
+    private static final int WINDOW_RECORDS = 256;
+    /** Flags used while painting the history in mergeBase and missing. */
+    private static final int FROM_CURRENT = 1, FROM_GIVEN = 2, STALE = 4;
+
+    /** A commit in the graph. */
+    static class Node {
+        final String id;
+        final List<String> parents;
+        final int generation;
+
+        Node(String id, List<String> parents, int generation) {
+            this.id = id;
+            this.parents = parents;
+            this.generation = generation;
+        }
+    }
+
+    /** The file holding the graph. */
+    private final File file;
+    /** The version of the file, in which new records are written. */
+    private int version = VERSION;
+    /** Every commit in the graph by ID. */
+    private final Map<String, Node> nodes = new HashMap<>();
+    /** The commits whose parents this repository lacks. */
+    private final Shallow shallow = Shallow.load();
+
+    private CommitGraph(File file) {
+        this.file = file;
+    }
+
+    /** Returns the commit-graph of the current repository. */
+    static CommitGraph load() {
+        CommitGraph graph = new CommitGraph(join(Repository.INFO_FOLDER, "commit-graph"));
+        if (!graph.file.isFile()) {
+            return graph;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(graph.file.toPath())))) {
+            if (in.readInt() != MAGIC) {
+                throw error("Bad commit-graph file.");
+            }
+            graph.version = in.readInt();
+            if (graph.version != VERSION && graph.version != 1) {
+                throw error("Bad commit-graph file.");
+            }
+            byte[] raw = new byte[ID_BYTES];
+            while (true) {
+                in.readFully(raw);
+                String id = bytesToHex(raw, 0, raw.length);
+                int parentCount = in.readUnsignedByte();
+                List<String> parents = new ArrayList<>(parentCount);
+                for (int i = 0; i < (graph.version == 1 ? parentCount : 2); i += 1) {
+                    in.readFully(raw);
+                    if (i < parentCount) {
+                        parents.add(bytesToHex(raw, 0, raw.length));
+                    }
+                }
+                int generation = in.readInt();
+                if (graph.shallow.contains(id)) {
+                    // Recorded before history beyond it was pruned.
+                    parents = new ArrayList<>();
+                }
+                graph.nodes.put(id, new Node(id, parents, generation));
+            }
+        } catch (EOFException excp) {
+            // End of the file, or of a record cut short by a crash; the
+            // commit of a partial record is simply added again when needed.
+            return graph;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the node of the commit with ID, adding it and any of its
+     *  ancestors missing from the graph. */
+    Node get(String id) {
+        Node node = nodes.get(id);
+        if (node != null) {
+            return node;
+        }
+        // Add missing ancestors parents-first, without recursion, so that
+        // long histories written before the graph existed cannot overflow
+        // the stack.
+        Deque<Commit> stack = new ArrayDeque<>();
+        stack.push(Commit.getFromFile(id));
+        while (!stack.isEmpty()) {
+            Commit commit = stack.peek();
+            boolean ready = true;
+            for (String parent : shallow.parents(commit)) {
+                if (!nodes.containsKey(parent)) {
+                    stack.push(Commit.getFromFile(parent));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                if (!nodes.containsKey(commit.id)) {
+                    add(commit);
+                }
+            }
+        }
+        return nodes.get(id);
+    }
+
+    /** Adds COMMIT, whose parents must already be in the graph, and appends
+     *  it to the graph file. */
+    void add(Commit commit) {
+        List<String> parents = new ArrayList<>(shallow.parents(commit));
+        int generation = 0;
+        for (String parent : parents) {
+            generation = Math.max(generation, get(parent).generation);
+        }
+        Node node = new Node(commit.id, parents, generation + 1);
+        nodes.put(node.id, node);
+        Repository.INFO_FOLDER.mkdir();
+        boolean fresh = !file.exists();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                version = VERSION;
+            }
+            out.write(hexToBytes(node.id));
+            out.writeByte(node.parents.size());
+            for (String parent : node.parents) {
+                out.write(hexToBytes(parent));
+            }
+            if (version != 1) {
+                out.write(new byte[(2 - node.parents.size()) * ID_BYTES]);
+            }
+            out.writeInt(node.generation);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends COMMIT, a commit that was just stored, to the graph file of
+     *  the current repository. Its parents' generations are looked up by
+     *  reading the records backwards from the end of the file, where the
+     *  parents of a new commit almost always are. If the file has no
+     *  parent, or is missing or of an older version, the whole graph is
+     *  loaded or rebuilt instead. */
+    static void append(Commit commit) {
+        File file = join(Repository.INFO_FOLDER, "commit-graph");
+        List<String> parents = Shallow.load().parents(commit);
+        if (!file.isFile()) {
+            load().add(commit);
+            return;
+        }
+        int version;
+        int generation = 0;
+        try (RandomAccessFile graph = new RandomAccessFile(file, "rw")) {
+            if (graph.length() < HEADER_SIZE || graph.readInt() != MAGIC) {
+                throw error("Bad commit-graph file.");
+            }
+            version = graph.readInt();
+            if (version == VERSION) {
+                // A record cut short by a crash would shift every later one.
+                long count = (graph.length() - HEADER_SIZE) / RECORD_SIZE;
+                graph.setLength(HEADER_SIZE + count * RECORD_SIZE);
+                for (String parent : parents) {
+                    int parentGeneration = findGeneration(graph, count, hexToBytes(parent));
+                    generation = parentGeneration < 0 ? -1 : Math.max(generation, parentGeneration);
+                    if (generation < 0) {
+                        break;
+                    }
+                }
+                if (generation >= 0) {
+                    graph.seek(graph.length());
+                    graph.write(record(commit.id, parents, generation + 1));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (version != VERSION) {
+            // Rewritten from the object store, which already holds COMMIT.
+            rebuild();
+        } else if (generation < 0) {
+            load().add(commit);
+        }
+    }
+
+    /** Returns the record of the commit with ID, PARENTS and GENERATION. */
+    private static byte[] record(String id, List<String> parents, int generation)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(hexToBytes(id));
+        out.writeByte(parents.size());
+        for (String parent : parents) {
+            out.write(hexToBytes(parent));
+        }
+        out.write(new byte[(2 - parents.size()) * ID_BYTES]);
+        out.writeInt(generation);
+        return bytes.toByteArray();
+    }
+
+    /** Returns the generation of the commit with the raw ID among the first
+     *  COUNT records of GRAPH, searching from the last one back, or -1 if
+     *  there is none. */
+    private static int findGeneration(RandomAccessFile graph, long count, byte[] id)
+            throws IOException {
+        byte[] window = new byte[WINDOW_RECORDS * RECORD_SIZE];
+        for (long end = count; end > 0; end -= WINDOW_RECORDS) {
+            long start = Math.max(0, end - WINDOW_RECORDS);
+            int length = (int) (end - start) * RECORD_SIZE;
+            graph.seek(HEADER_SIZE + start * RECORD_SIZE);
+            graph.readFully(window, 0, length);
+            for (int pos = length - RECORD_SIZE; pos >= 0; pos -= RECORD_SIZE) {
+                if (Arrays.equals(window, pos, pos + ID_BYTES, id, 0, ID_BYTES)) {
+                    return ByteBuffer.wrap(window, pos + RECORD_SIZE - 4, 4).getInt();
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Rewrites the graph from the commits in the object store, as after
+     *  history was pruned. */
+    static void rebuild() {
+        join(Repository.INFO_FOLDER, "commit-graph").delete();
+        CommitGraph graph = load();
+        for (String id : ObjectStore.list(ObjectType.COMMIT)) {
+            graph.get(id);
+        }
+    }
+
+    /** Returns the ID of the split point of the commits CURRENT and GIVEN:
+     *  a latest common ancestor of both, choosing the one closest to CURRENT
+     *  if there are several. Returns null if they have none, as in a
+     *  shallow repository whose history ends before their split point.
+     *
+     *  Commits are visited from the highest generation down, so each commit
+     *  is reached only after all of its descendants in the walk. A commit
+     *  reachable from both sides is a common ancestor, and marks everything
+     *  below it stale; the walk stops as soon as only stale commits are left,
+     *  so history older than the split point is never read. */
+    String mergeBase(String current, String given) {
+        if (current.equals(given)) {
+            return current;
+        }
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>(
+                Comparator.comparingInt((Node n) -> n.generation).reversed());
+        flags.put(current, FROM_CURRENT);
+        flags.put(given, FROM_GIVEN);
+        queue.add(get(current));
+        queue.add(get(given));
+        // Parents always have smaller generations than their children, so a
+        // commit is queued once and its flags are final when it is polled.
+        int nonStale = 2;
+        List<Node> candidates = new ArrayList<>();
+        while (nonStale > 0) {
+            Node node = queue.poll();
+            int nodeFlags = flags.get(node.id);
+            if ((nodeFlags & STALE) == 0) {
+                nonStale -= 1;
+                if ((nodeFlags & (FROM_CURRENT | FROM_GIVEN)) == (FROM_CURRENT | FROM_GIVEN)) {
+                    candidates.add(node);
+                    nodeFlags |= STALE;
+                }
+            }
+            for (String parent : node.parents) {
+                Integer old = flags.get(parent);
+                int merged = (old == null ? 0 : old) | nodeFlags;
+                if (old == null) {
+                    queue.add(get(parent));
+                    nonStale += (merged & STALE) == 0 ? 1 : 0;
+                } else if ((old & STALE) == 0 && (merged & STALE) != 0) {
+                    nonStale -= 1;
+                }
+                flags.put(parent, merged);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // Every history starts with the same initial commit, so it is
+            // an ancestor of any commit, even past a shallow boundary.
+            for (String id : List.of(current, given)) {
+                if (get(id).parents.isEmpty() && !shallow.contains(id)) {
+                    return id;
+                }
+            }
+            return null;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0).id;
+        }
+        return closest(current, candidates);
+    }
+
+    /** Returns the IDs of the commits reachable from WANT but from none of
+     *  HAVES, parents before children, as the commits to send to a
+     *  repository that has HAVES and wants WANT.
+     *
+     *  As in mergeBase, commits are visited from the highest generation
+     *  down; everything reachable from HAVES is marked stale, and the walk
+     *  stops as soon as only stale commits are left, so the shared history
+     *  below the newest common commits is never visited. */
+    List<String> missing(String want, Collection<String> haves) {
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>(
+                Comparator.comparingInt((Node n) -> n.generation).reversed());
+        flags.put(want, FROM_GIVEN);
+        queue.add(get(want));
+        int nonStale = 1;
+        for (String have : haves) {
+            Integer old = flags.get(have);
+            if (old == null) {
+                queue.add(get(have));
+            } else if ((old & STALE) == 0) {
+                nonStale -= 1;
+            }
+            flags.put(have, STALE);
+        }
+        List<String> result = new ArrayList<>();
+        while (nonStale > 0) {
+            Node node = queue.poll();
+            int nodeFlags = flags.get(node.id);
+            if ((nodeFlags & STALE) == 0) {
+                nonStale -= 1;
+                result.add(node.id);
+            }
+            for (String parent : node.parents) {
+                Integer old = flags.get(parent);
+                int merged = (old == null ? 0 : old) | nodeFlags;
+                if (old == null) {
+                    queue.add(get(parent));
+                    nonStale += (merged & STALE) == 0 ? 1 : 0;
+                } else if ((old & STALE) == 0 && (merged & STALE) != 0) {
+                    nonStale -= 1;
+                }
+                flags.put(parent, merged);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** Returns the IDs of the commits fewer than DEPTH parent steps from
+     *  any of HEADS, walking the history a level at a time. */
+    Set<String> recent(Collection<String> heads, int depth) {
+        Set<String> result = new HashSet<>(heads);
+        List<String> level = new ArrayList<>(result);
+        for (int steps = 1; steps < depth && !level.isEmpty(); steps += 1) {
+            List<String> next = new ArrayList<>();
+            for (String id : level) {
+                for (String parent : get(id).parents) {
+                    if (result.add(parent)) {
+                        next.add(parent);
+                    }
+                }
+            }
+            level = next;
+        }
+        return result;
+    }
+
+    /** Returns the ID of whichever of CANDIDATES is the fewest parent steps
+     *  from the commit START, skipping commits older than every candidate. */
+    private String closest(String start, List<Node> candidates) {
+        Set<String> ids = new HashSet<>();
+        int minGeneration = Integer.MAX_VALUE;
+        for (Node candidate : candidates) {
+            ids.add(candidate.id);
+            minGeneration = Math.min(minGeneration, candidate.generation);
+        }
+        Queue<String> queue = new ArrayDeque<>();
+        Set<String> seen = new HashSet<>();
+        queue.add(start);
+        seen.add(start);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (ids.contains(id)) {
+                return id;
+            }
+            for (String parent : get(id).parents) {
+                if (get(parent).generation >= minGeneration && seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        throw error("No common ancestor of %s and %s.", start, candidates);
+    }
+}
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The sorted index of commit IDs, which resolves abbreviated commit IDs
+ *  without listing the commits.
+ *
+ *  objects/info/commit-ids is laid out like a pack index: the magic "GCID",
+ *  a version, the number of CommitIndex records it covers, a 256-entry
+ *  fan-out table counting the IDs whose first byte is at most i, and the raw
+ *  20-byte IDs in sorted order. A prefix is resolved by a binary search in
+ *  the fan-out buckets it can fall in, reading only the IDs it passes.
+ *  Commits made since the file was written form its tail, read from the
+ *  commit index; once the tail reaches TAIL_LIMIT commits, the next commit
+ *  rewrites the file to include it. The file is only ever written by
+ *  commands holding the repository lock exclusively; a command that only
+ *  reads finding it missing or stale scans the commit index instead.
+ *  @author Boheng Mao
+ */
+class CommitIdIndex {
+    static final int MAGIC = 0x47434944;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int ID_BYTES = PackFile.ID_BYTES;
+    /** Most commits left in the tail before the file is rewritten. */
+    static final int TAIL_LIMIT = 256;
+
+    static final File INDEX_FILE = join(Repository.INFO_FOLDER, "commit-ids");
+
+    /** Rewrites the index file after a commit once the tail is long
+     *  enough. */
+    static void update() {
+        try (CommitIndex commits = CommitIndex.open()) {
+            int covered = covered();
+            if (covered < 0 || covered > commits.size() || commits.size() - covered >= TAIL_LIMIT) {
+                write(commits);
+            }
+        }
+    }
+
+    /** Rewrites the index file from the commit index. */
+    static void rebuild() {
+        try (CommitIndex commits = CommitIndex.open()) {
+            write(commits);
+        }
+    }
+
+    /** Returns the number of commit index records covered by the index file,
+     *  or -1 if there is no valid file. */
+    private static int covered() {
+        if (!INDEX_FILE.isFile()) {
+            return -1;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(INDEX_FILE, "r")) {
+            if (in.length() < HEADER_SIZE + FANOUT_SIZE
+                    || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the IDs of all of COMMITS to the index file. */
+    private static void write(CommitIndex commits) {
+        byte[][] ids = new byte[commits.size()][];
+        for (int i = 0; i < ids.length; i += 1) {
+            ids[i] = hexToBytes(commits.idAt(i));
+        }
+        Arrays.sort(ids, Arrays::compareUnsigned);
+        int[] fanout = new int[256];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        for (int i = 1; i < fanout.length; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        Repository.INFO_FOLDER.mkdir();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                HEADER_SIZE + FANOUT_SIZE + ids.length * ID_BYTES);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(commits.size());
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (byte[] id : ids) {
+                out.write(id);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.replace(INDEX_FILE, bytes.toByteArray());
+    }
+
+    /** Returns the IDs of the commits starting with PREFIX, but no more than
+     *  two, which is enough to tell a unique prefix from an ambiguous one.
+     *  The empty prefix names no commit. If the index file is missing or
+     *  stale, it is rewritten when the repository is locked exclusively,
+     *  and otherwise the whole commit index is scanned instead. */
+    static List<String> resolve(String prefix) {
+        List<String> result = new ArrayList<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]*")) {
+            return result;
+        }
+        try (CommitIndex commits = CommitIndex.open()) {
+            int covered = covered();
+            if ((covered < 0 || covered > commits.size()) && Transaction.isOpen()) {
+                write(commits);
+                covered = commits.size();
+            }
+            if (covered < 0 || covered > commits.size()) {
+                covered = 0;
+            } else {
+                searchFile(prefix, result);
+            }
+            for (int i = covered; i < commits.size() && result.size() < 2; i += 1) {
+                String id = commits.idAt(i);
+                if (id.startsWith(prefix) && !result.contains(id)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Adds the IDs of the index file starting with PREFIX to RESULT, up to
+     *  two of them. */
+    private static void searchFile(String prefix, List<String> result) {
+        // The IDs starting with PREFIX are those from PREFIX padded with 0s
+        // on, in the buckets of the first bytes PREFIX can start with.
+        byte[] key = hexToBytes(prefix + "0".repeat(UID_LENGTH - prefix.length()));
+        int firstByte = key[0] & 0xff;
+        int lastByte = hexToBytes(prefix + "f".repeat(UID_LENGTH - prefix.length()))[0] & 0xff;
+        try (RandomAccessFile in = new RandomAccessFile(INDEX_FILE, "r")) {
+            int lo = firstByte == 0 ? 0 : readFanout(in, firstByte - 1);
+            int hi = readFanout(in, lastByte);
+            byte[] id = new byte[ID_BYTES];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                readId(in, mid, id);
+                if (Arrays.compareUnsigned(id, key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int end = readFanout(in, lastByte);
+            for (int i = lo; i < end && result.size() < 2; i += 1) {
+                readId(in, i, id);
+                String hex = bytesToHex(id, 0, ID_BYTES);
+                if (!hex.startsWith(prefix)) {
+                    break;
+                }
+                result.add(hex);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns entry I of the fan-out table of IN. */
+    private static int readFanout(RandomAccessFile in, int i) throws IOException {
+        in.seek(HEADER_SIZE + 4L * i);
+        return in.readInt();
+    }
+
+    /** Reads the Ith sorted ID of IN into ID. */
+    private static void readId(RandomAccessFile in, int i, byte[] id) throws IOException {
+        in.seek(HEADER_SIZE + FANOUT_SIZE + (long) i * ID_BYTES);
+        in.readFully(id);
+    }
+}
@@ -0,0 +1,403 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The commit index: an append-only list of every commit's ID, parents,
+ *  time and message, so that log, global-log and find can list commits
+ *  without reading and decoding commit objects.
+ *
+ *  It is kept in two files under objects/info. commit-index is the magic
+ *  "GCIX" and a version, followed by one RECORD_SIZE record per commit, in
+ *  the order they were made: the raw ID, the number of parents and up to two
+ *  raw parent IDs (zeros if absent), the time in milliseconds, the UTC offset
+ *  of the timestamp in minutes, and the offset and length of the message in
+ *  commit-messages, which holds the UTF-8 messages back to back. A message is
+ *  appended before its record, so a record never points past the messages;
+ *  a record cut short by a crash is ignored.
+ *
+ *  Records are read through windows of WINDOW_RECORDS records at a time, and
+ *  messages in MESSAGE_WINDOW byte windows, so streaming over the index in
+ *  either direction reads each block once. The files are only written by
+ *  commands holding the repository lock exclusively; until they exist,
+ *  commands that only read build the index in memory each time.
+ *  @author Boheng Mao
+ */
+class CommitIndex implements Closeable {
+    static final int MAGIC = 0x47434958;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_BYTES = PackFile.ID_BYTES;
+    static final int RECORD_SIZE = ID_BYTES + 1 + 2 * ID_BYTES + 8 + 2 + 8 + 4;
+    private static final int WINDOW_RECORDS = 1024;
+    private static final int MESSAGE_WINDOW = 64 * 1024;
+
+    static final File INDEX_FILE = join(Repository.INFO_FOLDER, "commit-index");
+    static final File MESSAGES_FILE = join(Repository.INFO_FOLDER, "commit-messages");
+
+    /** A commit as recorded in the index. */
+    static class Record {
+        final String id;
+        final List<String> parents;
+        final long time;
+        final int offsetMinutes;
+        final long messageOffset;
+        final int messageLength;
+        /** The message, once read. */
+        private String message;
+
+        Record(String id, List<String> parents, long time, int offsetMinutes,
+               long messageOffset, int messageLength) {
+            this.id = id;
+            this.parents = parents;
+            this.time = time;
+            this.offsetMinutes = offsetMinutes;
+            this.messageOffset = messageOffset;
+            this.messageLength = messageLength;
+        }
+
+        /** Returns the record of COMMIT, for a commit missing from the
+         *  index. */
+        static Record of(Commit commit) {
+            Record record = new Record(commit.id, commit.parentList, commit.currentTime.getTime(),
+                    commit.timeStampOffset(), -1, -1);
+            record.message = commit.message;
+            return record;
+        }
+
+        String timeStamp() {
+            return Commit.createTimeStamp(time, offsetMinutes);
+        }
+    }
+
+    private final RandomAccessFile index;
+    private final RandomAccessFile messages;
+    /** The contents of the two files, for an index built in memory, in
+     *  which case INDEX and MESSAGES are null. */
+    private final byte[] indexBytes;
+    private final byte[] messageBytes;
+    /** Number of complete records. */
+    private final int size;
+    private final byte[] window = new byte[WINDOW_RECORDS * RECORD_SIZE];
+    private int windowStart = -1;
+    private final byte[] messageWindow = new byte[MESSAGE_WINDOW];
+    private long messageWindowStart = -1;
+    private int messageWindowLength;
+    /** Positions of the records passed so far by position, searching from
+     *  the newest record back to scanned. */
+    private final Map<String, Integer> positions = new HashMap<>();
+    private int scanned;
+
+    private CommitIndex() throws IOException {
+        index = new RandomAccessFile(INDEX_FILE, "r");
+        messages = new RandomAccessFile(MESSAGES_FILE, "r");
+        indexBytes = null;
+        messageBytes = null;
+        if (index.length() < HEADER_SIZE || index.readInt() != MAGIC || index.readInt() != VERSION) {
+            close();
+            throw error("Bad commit index.");
+        }
+        size = (int) ((index.length() - HEADER_SIZE) / RECORD_SIZE);
+        scanned = size;
+    }
+
+    /** An index holding the records INDEXBYTES, with their messages
+     *  MESSAGEBYTES, as append writes them. */
+    private CommitIndex(byte[] indexBytes, byte[] messageBytes) {
+        index = null;
+        messages = null;
+        this.indexBytes = indexBytes;
+        this.messageBytes = messageBytes;
+        size = (indexBytes.length - HEADER_SIZE) / RECORD_SIZE;
+        scanned = size;
+    }
+
+    /** Opens the commit index of the current repository. If it does not
+     *  exist yet, it is built from the object store, and written to its
+     *  files only when the repository is locked exclusively; a command that
+     *  only reads gets an index built in memory instead. */
+    static CommitIndex open() {
+        if (!INDEX_FILE.isFile()) {
+            if (!Transaction.isOpen()) {
+                return inMemory();
+            }
+            rebuild();
+        }
+        try {
+            return new CommitIndex();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns an index of the commits in the object store, built in memory
+     *  without touching the files of the index. */
+    private static CommitIndex inMemory() {
+        ByteArrayOutputStream indexOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream messageOut = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(indexOut);
+             DataOutputStream messageData = new DataOutputStream(messageOut)) {
+            encode(storedCommits(), 0, true, out, messageData);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new CommitIndex(indexOut.toByteArray(), messageOut.toByteArray());
+    }
+
+    /** Appends COMMIT to the commit index, building the index from the
+     *  object store instead if it does not exist yet. */
+    static void add(Commit commit) {
+        addAll(List.of(commit));
+    }
+
+    /** Appends COMMITS, parents first, to the commit index, as add does
+     *  for one commit. */
+    static void addAll(List<Commit> commits) {
+        if (!INDEX_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        append(commits);
+    }
+
+    /** Rebuilds the commit index if it does not list every commit in the
+     *  object store. Returns true if it was complete. */
+    static boolean check() {
+        try (CommitIndex index = open()) {
+            if (index.size() == ObjectStore.list(ObjectType.COMMIT).size()) {
+                return true;
+            }
+        }
+        rebuild();
+        return false;
+    }
+
+    /** Rewrites the commit index from the commits in the object store,
+     *  parents before children. The message and commit ID indexes refer to
+     *  positions here, so they are dropped to be rebuilt as well. */
+    static void rebuild() {
+        List<Commit> commits = storedCommits();
+        Repository.INFO_FOLDER.mkdir();
+        INDEX_FILE.delete();
+        MESSAGES_FILE.delete();
+        MessageIndex.INDEX_FILE.delete();
+        CommitIdIndex.INDEX_FILE.delete();
+        append(commits);
+    }
+
+    /** Returns the commits in the object store, parents before children. */
+    private static List<Commit> storedCommits() {
+        CommitGraph graph = CommitGraph.load();
+        List<Commit> commits = new ArrayList<>();
+        for (String id : ObjectStore.list(ObjectType.COMMIT)) {
+            commits.add(Commit.getFromFile(id));
+        }
+        commits.sort(Comparator.comparingInt((Commit c) -> graph.get(c.id).generation)
+                .thenComparing(c -> c.currentTime));
+        return commits;
+    }
+
+    /** Appends COMMITS to the files of the index, creating them if needed. */
+    private static void append(List<Commit> commits) {
+        boolean fresh = !INDEX_FILE.exists();
+        try (RandomAccessFile messageOut = new RandomAccessFile(MESSAGES_FILE, "rw");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(INDEX_FILE.toPath(),
+                             StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            long offset = messageOut.length();
+            messageOut.seek(offset);
+            encode(commits, offset, fresh, out, messageOut);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the messages of COMMITS to MESSAGEOUT, where they start at
+     *  OFFSET in the messages file, and then their records to OUT, preceded
+     *  by the header if HEADER. */
+    private static void encode(List<Commit> commits, long offset, boolean header,
+                               DataOutput out, DataOutput messageOut) throws IOException {
+        List<byte[]> encodedMessages = new ArrayList<>();
+        for (Commit commit : commits) {
+            byte[] message = commit.message.getBytes(StandardCharsets.UTF_8);
+            messageOut.write(message);
+            encodedMessages.add(message);
+        }
+        if (header) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        byte[] noParent = new byte[ID_BYTES];
+        for (int i = 0; i < commits.size(); i += 1) {
+            Commit commit = commits.get(i);
+            out.write(hexToBytes(commit.id));
+            out.writeByte(commit.parentList.size());
+            for (int p = 0; p < 2; p += 1) {
+                out.write(p < commit.parentList.size()
+                        ? hexToBytes(commit.parentList.get(p)) : noParent);
+            }
+            out.writeLong(commit.currentTime.getTime());
+            out.writeShort(commit.timeStampOffset());
+            out.writeLong(offset);
+            out.writeInt(encodedMessages.get(i).length);
+            offset += encodedMessages.get(i).length;
+        }
+    }
+
+    /** Returns the number of commits in the index. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the offset of the Ith record in the current window, loading
+     *  the window holding it if needed. */
+    private int locate(int i) {
+        if (windowStart < 0 || i < windowStart || i >= windowStart + WINDOW_RECORDS) {
+            windowStart = i - i % WINDOW_RECORDS;
+            int count = Math.min(WINDOW_RECORDS, size - windowStart);
+            long start = HEADER_SIZE + (long) windowStart * RECORD_SIZE;
+            if (index == null) {
+                System.arraycopy(indexBytes, (int) start, window, 0, count * RECORD_SIZE);
+                return (i - windowStart) * RECORD_SIZE;
+            }
+            try {
+                index.seek(start);
+                index.readFully(window, 0, count * RECORD_SIZE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return (i - windowStart) * RECORD_SIZE;
+    }
+
+    /** Returns the ID of the Ith commit. */
+    String idAt(int i) {
+        return bytesToHex(window, locate(i), ID_BYTES);
+    }
+
+    /** Returns the Ith record. */
+    Record read(int i) {
+        int pos = locate(i);
+        String id = bytesToHex(window, pos, ID_BYTES);
+        pos += ID_BYTES;
+        int parentCount = window[pos++];
+        List<String> parents = new ArrayList<>(parentCount);
+        for (int p = 0; p < 2; p += 1) {
+            if (p < parentCount) {
+                parents.add(bytesToHex(window, pos, ID_BYTES));
+            }
+            pos += ID_BYTES;
+        }
+        long time = readBigEndian(pos, 8);
+        int offsetMinutes = (short) readBigEndian(pos + 8, 2);
+        long messageOffset = readBigEndian(pos + 10, 8);
+        int messageLength = (int) readBigEndian(pos + 18, 4);
+        return new Record(id, parents, time, offsetMinutes, messageOffset, messageLength);
+    }
+
+    /** Returns the COUNT bytes of the window at POS as a big-endian number. */
+    private long readBigEndian(int pos, int count) {
+        long result = 0;
+        for (int k = 0; k < count; k += 1) {
+            result = result << 8 | (window[pos + k] & 0xff);
+        }
+        return result;
+    }
+
+    /** Returns the message of RECORD. */
+    String message(Record record) {
+        if (record.message == null) {
+            record.message = readMessage(record);
+        }
+        return record.message;
+    }
+
+    /** Reads the message of RECORD from the messages file. */
+    private String readMessage(Record record) {
+        if (record.messageLength > MESSAGE_WINDOW) {
+            return new String(readMessage(record.messageOffset, record.messageLength),
+                    StandardCharsets.UTF_8);
+        }
+        if (messageWindowStart < 0 || record.messageOffset < messageWindowStart
+                || record.messageOffset + record.messageLength
+                > messageWindowStart + messageWindowLength) {
+            // Center the window so that reading either forwards or backwards
+            // through the messages hits it again.
+            long start = Math.max(0, record.messageOffset - MESSAGE_WINDOW / 2);
+            try {
+                long length = messages == null ? messageBytes.length : messages.length();
+                messageWindowLength = (int) Math.min(MESSAGE_WINDOW, length - start);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            messageWindowStart = start;
+            byte[] bytes = readMessage(start, messageWindowLength);
+            System.arraycopy(bytes, 0, messageWindow, 0, bytes.length);
+        }
+        return new String(messageWindow, (int) (record.messageOffset - messageWindowStart),
+                record.messageLength, StandardCharsets.UTF_8);
+    }
+
+    /** Reads LENGTH bytes of the messages file at OFFSET. */
+    private byte[] readMessage(long offset, int length) {
+        byte[] result = new byte[length];
+        if (messages == null) {
+            System.arraycopy(messageBytes, (int) offset, result, 0, length);
+            return result;
+        }
+        try {
+            messages.seek(offset);
+            messages.readFully(result);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns the record of the commit with ID. The index is searched from
+     *  the newest commit back, and every record passed is remembered, so
+     *  walking a history from a recent commit towards older ones reads each
+     *  record once. A commit missing from the index, as after a crash between
+     *  writing a commit and indexing it, is read from the object store. */
+    Record find(String id) {
+        Integer position = positions.get(id);
+        while (position == null && scanned > 0) {
+            scanned -= 1;
+            String scannedID = idAt(scanned);
+            positions.put(scannedID, scanned);
+            if (scannedID.equals(id)) {
+                position = scanned;
+            }
+        }
+        return position == null ? Record.of(Commit.getFromFile(id)) : read(position);
+    }
+
+    @Override
+    public void close() {
+        if (index == null) {
+            return;
+        }
+        try {
+            index.close();
+            messages.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** The ways loose objects can be compressed, chosen per repository by the
+ *  "compression" setting of its Config.
+ *
+ *  A compressed object starts with MAGIC, the code of its compression and
+ *  its uncompressed length as 8 bytes, followed by its compressed contents.
+ *  Uncompressed objects are stored raw, as they always were, so objects
+ *  written before compression existed, or while it was off, are still read;
+ *  the rare raw object that starts with MAGIC itself is framed with NONE.
+ *  @author Boheng Mao
+ */
+enum Compression {
+    NONE((byte) 0),
+    DEFLATE((byte) 1),
+    LZ4((byte) 2);
+
+    /** The first bytes of a framed object. */
+    static final byte[] MAGIC = {0, 'G', 'L', 'Z'};
+    /** Length of the frame header of a framed object. */
+    static final int HEADER_LENGTH = MAGIC.length + 1 + 8;
+
+    /** The code written for this compression in object headers. */
+    final byte code;
+
+    Compression(byte code) {
+        this.code = code;
+    }
+
+    /** Returns the compression configured for the current repository. */
+    static Compression configured() {
+        String name = Config.get("compression", "none");
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException excp) {
+            throw error("Unknown compression %s in config.", name);
+        }
+    }
+
+    /** Returns the compression whose header code is CODE. */
+    static Compression fromCode(byte code) {
+        for (Compression compression : values()) {
+            if (compression.code == code) {
+                return compression;
+            }
+        }
+        throw error("Unknown compression %d in object.", code);
+    }
+
+    /** Returns true if BYTES starts with MAGIC. */
+    static boolean isFramed(byte[] bytes) {
+        return bytes.length >= MAGIC.length
+                && Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    /** Returns the stored form of an object with CONTENTS. */
+    byte[] compress(byte[] contents) {
+        if (this == NONE && !isFramed(contents)) {
+            return contents;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressor = framedCompressor(out, contents.length)) {
+            compressor.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns a stream writing the stored form of an object of LENGTH bytes
+     *  to OUT. With NONE the contents are written raw, so the caller has to
+     *  reframe them if they start with MAGIC; see reframe. */
+    OutputStream compressor(OutputStream out, long length) throws IOException {
+        return this == NONE ? out : framedCompressor(out, length);
+    }
+
+    /** Writes the frame header of an object of LENGTH bytes to OUT, and
+     *  returns a stream compressing the contents that follow. */
+    private OutputStream framedCompressor(OutputStream out, long length) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.write(MAGIC);
+        header.writeByte(code);
+        header.writeLong(length);
+        header.flush();
+        switch (this) {
+            case DEFLATE:
+                return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), Blob.BUFFER_SIZE);
+            case LZ4:
+                return new Lz4.BlockOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /** Returns the contents of the object stored as STORED. */
+    static byte[] decompress(byte[] stored) {
+        if (!isFramed(stored)) {
+            return stored;
+        }
+        try (InputStream in = decompressor(new ByteArrayInputStream(stored))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of the object stored in STORED, without
+     *  copying them, or null if they are compressed. */
+    static ByteBuffer raw(ByteBuffer stored) {
+        if (stored.remaining() < HEADER_LENGTH) {
+            return stored;
+        }
+        byte[] head = new byte[HEADER_LENGTH];
+        stored.duplicate().get(head);
+        if (!isFramed(head)) {
+            return stored;
+        } else if (fromCode(head[MAGIC.length]) != NONE) {
+            return null;
+        }
+        return MappedFiles.slice(stored, stored.position() + HEADER_LENGTH,
+                stored.remaining() - HEADER_LENGTH);
+    }
+
+    /** Returns a stream over the contents of the object stored in IN. */
+    static InputStream decompressor(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, Blob.BUFFER_SIZE);
+        buffered.mark(HEADER_LENGTH);
+        byte[] head = buffered.readNBytes(HEADER_LENGTH);
+        if (head.length < HEADER_LENGTH || !isFramed(head)) {
+            buffered.reset();
+            return buffered;
+        }
+        switch (fromCode(head[MAGIC.length])) {
+            case DEFLATE:
+                return new InflaterInputStream(buffered);
+            case LZ4:
+                return new Lz4.BlockInputStream(buffered);
+            default:
+                return buffered;
+        }
+    }
+
+    /** Returns the uncompressed length of the object stored in FILE. */
+    static long length(File file) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            byte[] head = in.readNBytes(MAGIC.length + 1);
+            if (!isFramed(head) || head.length < MAGIC.length + 1) {
+                return file.length();
+            }
+            return in.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Records LENGTH as the uncompressed length of the object stored in
+     *  FILE, for objects whose length changed while they were written. */
+    static void setLength(File file, long length) {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(MAGIC.length + 1);
+            out.writeLong(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Frames the object in FILE, written raw by a NONE compressor, if it
+     *  starts with MAGIC, so that it is not mistaken for a framed object. */
+    static void reframe(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            if (!isFramed(in.readNBytes(MAGIC.length))) {
+                return;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(file, (Object) NONE.compress(readContents(file)));
+    }
+}
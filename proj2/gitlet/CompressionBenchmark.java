@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/** Compares the object compressions on a synthetic repository: for each
+ *  one, builds the same repository of config-like text files and random
+ *  binary files, and reports the disk footprint of its objects and the
+ *  throughput of checking out (resetting to) its two commits in turn.
+ *
+ *  Usage: java gitlet.CompressionBenchmark [FILES [ROUNDS]]
+ *
+ *  Every gitlet command runs in its own JVM, as it would for a user, so the
+ *  times include JVM start-up; the differences between the compressions
+ *  are what matter.
+ *  @author Boheng Mao
+ */
+public class CompressionBenchmark {
+    /** Number of lines of a text file. */
+    private static final int LINES = 2000;
+    /** Size of a binary file in bytes. */
+    private static final int BINARY_SIZE = 256 * 1024;
+
+    private static void printTable(List<String> names, List<Long> footprints,
+                                   List<Double> times, long bytesPerRound) {
+        System.out.printf("%12s %14s %12s %12s %12s\n",
+                "compression", "objects (B)", "ratio", "time (s)", "MB/s");
+        System.out.printf("--------------------------------------------------------------------\n");
+        for (int i = 0; i < names.size(); i += 1) {
+            double ratio = (double) footprints.get(i) / footprints.get(0);
+            double throughput = bytesPerRound / times.get(i) / 1e6;
+            System.out.printf("%12s %14d %12.2f %12.2f %12.2f\n",
+                    names.get(i), footprints.get(i), ratio, times.get(i), throughput);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        List<String> names = new ArrayList<>();
+        List<Long> footprints = new ArrayList<>();
+        List<Double> times = new ArrayList<>();
+        long bytesPerRound = 0;
+        for (Compression compression : Compression.values()) {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            try {
+                run(dir, "init");
+                writeContents(join(dir, ".gitlet", "config"),
+                        "compression = " + compression.name().toLowerCase() + "\n"
+                        + "format = " + Config.FORMAT + "\n");
+                bytesPerRound = generate(dir, files, 0);
+                run(dir, "add", ".");
+                run(dir, "commit", "first");
+                String first = readContentsAsString(join(dir, ".gitlet", "HEAD"));
+                bytesPerRound += generate(dir, files, 1);
+                run(dir, "add", ".");
+                run(dir, "commit", "second");
+                String second = readContentsAsString(join(dir, ".gitlet", "HEAD"));
+                footprints.add(sizeOf(join(dir, ".gitlet", "objects").toPath()));
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i += 1) {
+                    run(dir, "reset", first);
+                    run(dir, "reset", second);
+                }
+                times.add((System.nanoTime() - start) / 1e9);
+                names.add(compression.name().toLowerCase());
+            } finally {
+                delete(dir.toPath());
+            }
+        }
+        printTable(names, footprints, times, bytesPerRound * rounds);
+    }
+
+    /** Writes version VERSION of the FILES synthetic files to DIR, and
+     *  returns their total size. Most files are text with a few values that
+     *  change between versions; every tenth one is random bytes. */
+    private static long generate(File dir, int files, int version) {
+        long total = 0;
+        for (int i = 0; i < files; i += 1) {
+            Random random = new Random(i * 31L + version);
+            byte[] contents;
+            if (i % 10 == 9) {
+                contents = new byte[BINARY_SIZE];
+                random.nextBytes(contents);
+            } else {
+                Random values = new Random(i);
+                StringBuilder text = new StringBuilder();
+                for (int line = 0; line < LINES; line += 1) {
+                    long value = line % 50 == 0 ? random.nextInt(1000) : values.nextInt(1000);
+                    text.append("service.").append(i).append(".setting").append(line)
+                            .append(" = ").append(value).append('\n');
+                }
+                contents = text.toString().getBytes();
+            }
+            writeContents(join(dir, "file" + i + ".conf"), (Object) contents);
+            total += contents.length;
+        }
+        return total;
+    }
+
+    /** Runs gitlet with ARGS in DIR, failing if it fails. */
+    private static void run(File dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+                join(new File(System.getProperty("java.home")), "bin", "java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        if (process.waitFor() != 0) {
+            throw error("gitlet %s failed.", String.join(" ", args));
+        }
+    }
+
+    /** Returns the total size of the files under ROOT. */
+    private static long sizeOf(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    /** Deletes ROOT and everything under it. */
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
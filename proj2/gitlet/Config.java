@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The settings of a repository, kept in .gitlet/config as one
+ *  "key = value" pair per line; lines starting with '#' are comments.
+ *  Settings that are not given take their defaults. The file is read once
+ *  per command.
+ *
+ *  The "format" setting records the storage format of the repository. init
+ *  and migrate set it to FORMAT. A repository without it was written by an
+ *  older gitlet, whose blobs are serialized Blob objects that would be
+ *  checked out as they are stored, so commands refuse to run on it until it
+ *  is migrated.
+ *  @author Boheng Mao
+ */
+class Config {
+    /** The storage format written by this version of gitlet. */
+    static final String FORMAT = "2";
+    /** The contents of a new repository's config. */
+    private static final String DEFAULT_CONFIG =
+            "# Compression of new loose objects: none, deflate or lz4.\n"
+            + "compression = none\n"
+            + "# Milliseconds to wait for another gitlet process before giving up.\n"
+            + "lock-timeout = 10000\n"
+            + "# Storage format of the repository, set by init and migrate.\n"
+            + "format = " + FORMAT + "\n";
+
+    /** The settings read from the config file. */
+    private static Map<String, String> values;
+
+    /** Returns the value of the setting KEY, or DEFAULTVALUE if it is not
+     *  set. */
+    static synchronized String get(String key, String defaultValue) {
+        if (values == null) {
+            values = read(Repository.CONFIG);
+        }
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    /** Forgets the settings read, so that they are read again, as by a
+     *  Daemon before each command. */
+    static synchronized void reload() {
+        values = null;
+    }
+
+    /** Returns true if the repository is stored in the current FORMAT. */
+    static boolean currentFormat() {
+        return FORMAT.equals(get("format", null));
+    }
+
+    /** Writes the config of a new repository. */
+    static void writeDefault() {
+        writeContents(Repository.CONFIG, DEFAULT_CONFIG);
+    }
+
+    /** Sets KEY to VALUE in the config file, replacing the line that sets
+     *  it or adding one. A repository without a config file gets the
+     *  default one first. */
+    static synchronized void set(String key, String value) {
+        String contents = Repository.CONFIG.isFile()
+                ? readContentsAsString(Repository.CONFIG) : DEFAULT_CONFIG;
+        StringBuilder result = new StringBuilder();
+        boolean found = false;
+        for (String line : contents.split("\n")) {
+            int equals = line.indexOf('=');
+            if (!line.trim().startsWith("#") && equals >= 0
+                    && line.substring(0, equals).trim().equals(key)) {
+                if (found) {
+                    continue;
+                }
+                line = key + " = " + value;
+                found = true;
+            }
+            if (!line.isEmpty() || result.length() > 0) {
+                result.append(line).append('\n');
+            }
+        }
+        if (!found) {
+            result.append(key).append(" = ").append(value).append('\n');
+        }
+        Transaction.replace(Repository.CONFIG, result.toString().getBytes(StandardCharsets.UTF_8));
+        values = null;
+    }
+
+    /** Returns the settings in FILE, which may not exist. */
+    private static Map<String, String> read(File file) {
+        Map<String, String> result = new HashMap<>();
+        if (!file.isFile()) {
+            return result;
+        }
+        for (String line : readContentsAsString(file).split("\n")) {
+            line = line.trim();
+            int equals = line.indexOf('=');
+            if (line.isEmpty() || line.startsWith("#") || equals < 0) {
+                continue;
+            }
+            result.put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+        }
+        return result;
+    }
+}
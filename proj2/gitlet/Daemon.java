@@ -0,0 +1,310 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet that serves commands over a Unix-domain socket,
+ *  so that scripts issuing many commands pay for starting a JVM, loading
+ *  classes and warming up the object caches once instead of per command.
+ *
+ *  "gitlet daemon" serves the repository in the current directory on
+ *  .gitlet/daemon.sock until "gitlet daemon stop", or until the repository
+ *  is removed. The gitlet-client script next to the gitlet package sends
+ *  its command to the daemon if one is running, and runs gitlet.Main
+ *  itself otherwise, so plain command-line use is unchanged.
+ *
+ *  A request is the number of arguments, the client's working directory
+ *  and the arguments, each string as its length and UTF-8 bytes. The reply
+ *  is a sequence of frames, each a kind byte: OUT or ERR followed by a
+ *  length and that much output, or EXIT followed by the exit status, which
+ *  ends the reply. A client in another directory gets NOT_SERVED and runs
+ *  the command itself.
+ *
+ *  Commands are served one at a time, each exactly as Main would run it,
+ *  with the RepositoryLock and Transaction of every command. A client that
+ *  does not send its whole request within REQUEST_TIMEOUT is dropped, so
+ *  that it cannot hold up the others. HEAD, the branches and the stages
+ *  are read afresh for each command, as other processes may change them;
+ *  immutable objects stay cached, and the packs are reopened only if the
+ *  packs folder changed.
+ *  @author Boheng Mao
+ */
+class Daemon {
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /** Kinds of reply frames. */
+    static final byte EXIT = 0;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    /** Exit statuses. */
+    static final int FAILED = 1;
+    static final int NOT_SERVED = 2;
+    /** Milliseconds between checks that the repository still exists. */
+    private static final long POLL_INTERVAL = 1000;
+    /** Milliseconds a client has to send its whole request. */
+    private static final long REQUEST_TIMEOUT = 5000;
+
+    /** True while the daemon runs commands in this process. */
+    private static volatile boolean serving;
+
+    /** Thrown by endCommand to end a command served by the daemon, where
+     *  exiting would end the daemon. */
+    static class CommandEnded extends RuntimeException {
+        private static final long serialVersionUID = 8890120676495052344L;
+
+        CommandEnded() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** Returns true if this process is a daemon serving commands. */
+    static boolean serving() {
+        return serving;
+    }
+
+    /** Serves commands for the repository in the current directory. */
+    static void serve() {
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            endCommand();
+        }
+        if (running()) {
+            System.out.println("A gitlet daemon is already running in this repository.");
+            endCommand();
+        }
+        // A socket file left by a daemon that died.
+        SOCKET.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            serving = true;
+            boolean stop = false;
+            while (!stop && SOCKET.exists()) {
+                if (selector.select(POLL_INTERVAL) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client != null) {
+                    try (client) {
+                        stop = handle(client);
+                    } catch (IOException excp) {
+                        // The client went away or was too slow; serve the
+                        // next one.
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot serve on %s: %s", SOCKET.getPath(), excp.getMessage());
+        } finally {
+            serving = false;
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command requested by CLIENT and sends back its output.
+     *  Returns true if it asked the daemon to stop. */
+    private static boolean handle(SocketChannel client) throws IOException {
+        String[] request = readRequest(client);
+        client.configureBlocking(true);
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)));
+        String directory = request[0];
+        String[] args = Arrays.copyOfRange(request, 1, request.length);
+        if (!new File(directory).getCanonicalPath().equals(Repository.CWD.getCanonicalPath())) {
+            sendExit(reply, NOT_SERVED);
+            return false;
+        }
+        if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+            sendExit(reply, 0);
+            return true;
+        }
+        int status = run(args, reply);
+        sendExit(reply, status);
+        return false;
+    }
+
+    /** Reads the request of CLIENT, returning the client's working
+     *  directory followed by the arguments. Unix-domain channels have no
+     *  read timeout, so the request is read without blocking until it is
+     *  complete, and a client that has not sent it all within
+     *  REQUEST_TIMEOUT gets an IOException instead of holding up the
+     *  daemon. */
+    private static String[] readRequest(SocketChannel client) throws IOException {
+        client.configureBlocking(false);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long deadline = System.currentTimeMillis() + REQUEST_TIMEOUT;
+        try (Selector selector = Selector.open()) {
+            client.register(selector, SelectionKey.OP_READ);
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Timed out reading the request.");
+                }
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+                int count = client.read(buffer);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                received.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+                String[] request = parseRequest(received.toByteArray());
+                if (request != null) {
+                    client.keyFor(selector).cancel();
+                    selector.selectNow();
+                    return request;
+                }
+            }
+        }
+    }
+
+    /** Returns the working directory and arguments of the request in
+     *  BYTES, or null if BYTES holds only part of it. */
+    private static String[] parseRequest(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Bad request.");
+            }
+            String[] request = new String[count + 1];
+            for (int i = 0; i < request.length; i += 1) {
+                request[i] = readString(in);
+            }
+            return request;
+        } catch (EOFException excp) {
+            return null;
+        }
+    }
+
+    /** Runs the command ARGS, sending its output to REPLY, and returns its
+     *  exit status. */
+    private static int run(String[] args, DataOutputStream reply) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FrameStream(reply, OUT)),
+                false, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new FrameStream(reply, ERR)),
+                false, StandardCharsets.UTF_8);
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        try {
+            Config.reload();
+            ObjectStore.refresh();
+            Main.run(args);
+        } catch (CommandEnded excp) {
+            // Ended early with a message, as gitlet exits with status 0.
+        } catch (RuntimeException | Error excp) {
+            System.err.println(excp.getMessage() != null ? excp.getMessage() : excp.toString());
+            status = FAILED;
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return status;
+    }
+
+    /** Asks the daemon of the repository in the current directory to stop. */
+    static void stop() {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(2);
+            writeString(out, Repository.CWD.getPath());
+            writeString(out, "daemon");
+            writeString(out, "stop");
+            out.flush();
+            Channels.newInputStream(channel).readAllBytes();
+        } catch (IOException excp) {
+            System.out.println("No gitlet daemon is running in this repository.");
+            endCommand();
+        }
+    }
+
+    /** Returns true if a daemon answers on the socket. */
+    private static boolean running() {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void sendExit(DataOutputStream reply, int status) throws IOException {
+        reply.writeByte(EXIT);
+        reply.writeInt(status);
+        reply.flush();
+    }
+
+    /** Sends what is written to it as frames of one KIND. */
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream reply;
+        private final byte kind;
+
+        FrameStream(DataOutputStream reply, byte kind) {
+            this.reply = reply;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            reply.writeByte(kind);
+            reply.writeInt(len);
+            reply.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            reply.flush();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** A delta: an object stored as the differences from another object of the
+ *  same pack, its base. Encoded, a delta is the varint lengths of the base
+ *  and of the result, then a sequence of instructions: a byte 1..127 is
+ *  followed by that many bytes to insert, and the byte COPY by the varint
+ *  offset and length of bytes to copy from the base.
+ *
+ *  The encoder works like xdelta: the base is indexed by a rolling hash of
+ *  each aligned BLOCK-byte block, then a window of BLOCK bytes is slid over
+ *  the target, and wherever its hash finds a matching block the match is
+ *  extended both ways and turned into a copy.
+ *  @author Boheng Mao
+ */
+class Delta {
+    /** Size of the blocks of the base that are indexed. */
+    static final int BLOCK = 16;
+    /** The instruction copying bytes from the base. */
+    private static final int COPY = 0x80;
+    /** Most bytes inserted by one instruction. */
+    private static final int MAX_INSERT = 0x7f;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power BLOCK - 1, to roll the oldest byte out. */
+    private static final int OUT_FACTOR = power(PRIME, BLOCK - 1);
+
+    /** The ID of the base object. */
+    final String baseID;
+    /** The encoded delta. */
+    final byte[] bytes;
+
+    Delta(String baseID, byte[] bytes) {
+        this.baseID = baseID;
+        this.bytes = bytes;
+    }
+
+    /** Returns the delta turning BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+            blocks.putIfAbsent(hash(base, off), off);
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer off = blocks.get(h);
+            if (off != null && matches(base, off, target, i)) {
+                int start = i;
+                int baseStart = off;
+                while (start > pending && baseStart > 0
+                        && base[baseStart - 1] == target[start - 1]) {
+                    start -= 1;
+                    baseStart -= 1;
+                }
+                int length = i - start + BLOCK;
+                while (baseStart + length < base.length && start + length < target.length
+                        && base[baseStart + length] == target[start + length]) {
+                    length += 1;
+                }
+                writeInsert(out, target, pending, start);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, length);
+                i = start + length;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - (target[i] & 0xff) * OUT_FACTOR) * PRIME + (target[i + BLOCK] & 0xff);
+            }
+            i += 1;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != result.length) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns the length of the result of the encoded DELTA. */
+    static long resultLength(byte[] delta) {
+        int[] pos = {0};
+        readVarint(delta, pos);
+        return readVarint(delta, pos);
+    }
+
+    /** Writes instructions inserting TARGET[FROM..TO) to OUT. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(target, from, n);
+            from += n;
+        }
+    }
+
+    /** Returns true if the BLOCK bytes of BASE at OFF equal those of TARGET
+     *  at I. */
+    private static boolean matches(byte[] base, int off, byte[] target, int i) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (base[off + k] != target[i + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA at OFF. */
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + (data[off + k] & 0xff);
+        }
+        return h;
+    }
+
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i += 1) {
+            result *= base;
+        }
+        return result;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    private static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[pos[0]++];
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line diffs by Myers' O(ND) algorithm, in its linear-space form: the
+ *  middle snake of the edit graph is found by searching from both ends at
+ *  once, and the two halves on either side of it are diffed recursively.
+ *  Common prefixes and suffixes are stripped before each search.
+ *
+ *  Lines are compared as ints, numbered so that equal lines get equal
+ *  numbers, and the two arrays the search needs are allocated once per
+ *  diff and reused at every level of the recursion, so the only other
+ *  allocations are the hunks themselves. Diffs are printed in the unified
+ *  format of diff -u.
+ *  @author Boheng Mao
+ */
+class Diff {
+    /** A change: lines [aStart, aEnd) of the old sequence are replaced by
+     *  lines [bStart, bEnd) of the new one. Either range may be empty. */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    private final int[] a;
+    private final int[] b;
+    /** Lines of a deleted, and lines of b inserted, by the diff. */
+    private final boolean[] deleted;
+    private final boolean[] inserted;
+    /** The furthest x reached on each diagonal by the forward and the
+     *  backward search, big enough for the middle snake of a and b. */
+    private final int[] forward;
+    private final int[] backward;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.deleted = new boolean[a.length];
+        this.inserted = new boolean[b.length];
+        int length = 2 * ((a.length + b.length + 1) / 2) + 2;
+        this.forward = new int[length];
+        this.backward = new int[length];
+    }
+
+    /** Returns the hunks of a shortest edit script from A to B, in order. */
+    static List<Hunk> diff(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.hunks();
+    }
+
+    /** Returns the hunks of a shortest edit script from lines A to lines B,
+     *  in order. */
+    static List<Hunk> diff(List<String> a, List<String> b) {
+        Map<String, Integer> numbers = new HashMap<>();
+        return diff(number(a, numbers), number(b, numbers));
+    }
+
+    /** Returns the lines of TEXT, each with its line terminator. */
+    static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == '\n') {
+                result.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** Returns LINES as numbers, numbering equal lines equally, and new
+     *  lines after those in NUMBERS, which it extends. */
+    static int[] number(List<String> lines, Map<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer n = numbers.get(lines.get(i));
+            if (n == null) {
+                n = numbers.size();
+                numbers.put(lines.get(i), n);
+            }
+            result[i] = n;
+        }
+        return result;
+    }
+
+    /** Returns CONTENTS as text, or null if they are not UTF-8 text, as
+     *  binary files are not diffed line by line. */
+    static String text(byte[] contents) {
+        for (byte c : contents) {
+            if (c == 0) {
+                return null;
+            }
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(contents)).toString();
+        } catch (CharacterCodingException excp) {
+            return null;
+        }
+    }
+
+    /** Appends to OUT the HUNKS from lines A to lines B in unified format,
+     *  with CONTEXT unchanged lines around each change. Changes closer
+     *  than twice CONTEXT share one @@ section. */
+    static void unified(List<String> a, List<String> b, List<Hunk> hunks, int context,
+                        StringBuilder out) {
+        int first = 0;
+        while (first < hunks.size()) {
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * context) {
+                last += 1;
+            }
+            Hunk start = hunks.get(first);
+            Hunk end = hunks.get(last);
+            int aFrom = Math.max(0, start.aStart - context);
+            int bFrom = start.bStart - (start.aStart - aFrom);
+            int aTo = Math.min(a.size(), end.aEnd + context);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            out.append("@@ -").append(range(aFrom, aTo)).append(" +")
+                    .append(range(bFrom, bTo)).append(" @@\n");
+            int i = aFrom;
+            for (int h = first; h <= last; h += 1) {
+                Hunk hunk = hunks.get(h);
+                appendLines(out, ' ', a, i, hunk.aStart);
+                appendLines(out, '-', a, hunk.aStart, hunk.aEnd);
+                appendLines(out, '+', b, hunk.bStart, hunk.bEnd);
+                i = hunk.aEnd;
+            }
+            appendLines(out, ' ', a, i, aTo);
+            first = last + 1;
+        }
+    }
+
+    /** Returns lines [FROM, TO) as a unified range: the first line counted
+     *  from 1, or the line before an empty range, and the count unless it
+     *  is 1. */
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    /** Appends LINES [FROM, TO) to OUT, each after PREFIX. */
+    private static void appendLines(StringBuilder out, char prefix, List<String> lines,
+                                    int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            String line = lines.get(k);
+            out.append(prefix).append(line);
+            if (!line.endsWith("\n")) {
+                out.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Marks the lines deleted from a[aLo, aHi) and inserted from
+     *  b[bLo, bHi) by a shortest edit script between them. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            for (int i = aLo; i < aHi; i += 1) {
+                deleted[i] = true;
+            }
+            for (int j = bLo; j < bHi; j += 1) {
+                inserted[j] = true;
+            }
+            return;
+        }
+        int[] split = middleSnake(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            for (int i = aLo; i < aHi; i += 1) {
+                deleted[i] = true;
+            }
+            for (int j = bLo; j < bHi; j += 1) {
+                inserted[j] = true;
+            }
+            return;
+        }
+        compare(aLo, split[0], bLo, split[1]);
+        compare(split[0], aHi, split[1], bHi);
+    }
+
+    /** Returns a point {x, y} on a shortest edit path from (aLo, bLo) to
+     *  (aHi, bHi), found where the forward and backward searches meet, or
+     *  null if the sequences have nothing in common. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        // forward[k] and backward[k] are the furthest x reached on diagonal
+        // k from the start and from the end; backward x counts from the end.
+        // Only their first length entries are used.
+        Arrays.fill(forward, 0, length, -1);
+        Arrays.fill(backward, 0, length, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // With an odd delta the paths meet on a forward step, else backward.
+        boolean front = (delta & 1) != 0;
+        int kfStart = 0;
+        int kfEnd = 0;
+        int kbStart = 0;
+        int kbEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + kfStart; k <= d - kfEnd; k += 2) {
+                int kOffset = offset + k;
+                int x = k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1])
+                        ? forward[kOffset + 1] : forward[kOffset - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[kOffset] = x;
+                if (x > n) {
+                    kfEnd += 2;
+                } else if (y > m) {
+                    kfStart += 2;
+                } else if (front) {
+                    int bOffset = offset + delta - k;
+                    if (bOffset >= 0 && bOffset < length && backward[bOffset] != -1
+                            && x >= n - backward[bOffset]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + kbStart; k <= d - kbEnd; k += 2) {
+                int kOffset = offset + k;
+                int x = k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1])
+                        ? backward[kOffset + 1] : backward[kOffset - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[kOffset] = x;
+                if (x > n) {
+                    kbEnd += 2;
+                } else if (y > m) {
+                    kbStart += 2;
+                } else if (!front) {
+                    int fOffset = offset + delta - k;
+                    if (fOffset >= 0 && fOffset < length && forward[fOffset] != -1) {
+                        int fx = forward[fOffset];
+                        int fy = offset + fx - fOffset;
+                        if (fx >= n - x) {
+                            return new int[] {aLo + fx, bLo + fy};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the runs of marked lines as hunks. Unmarked lines of a and b
+     *  match one to one, in order. */
+    private List<Hunk> hunks() {
+        List<Hunk> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && deleted[i]) {
+                i += 1;
+            }
+            while (j < b.length && inserted[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(aStart, i, bStart, j));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Measures Diff on large synthetic files: for each size, diffs a file of
+ *  config-like lines against a copy with a share of its lines edited, and
+ *  reports the time per diff and the lines diffed per second.
+ *
+ *  Usage: java gitlet.DiffBenchmark [LINES...]
+ *
+ *  Diffs run in this JVM, after warm-up rounds that let the JIT compile
+ *  them, and the time of each case is the best of several measured rounds,
+ *  as a microbenchmark harness would report it. Each case is diffed from
+ *  text, so numbering the lines is part of the cost, as it is for the diff
+ *  and merge commands.
+ *  @author Boheng Mao
+ */
+public class DiffBenchmark {
+    /** Rounds run before measuring, and rounds measured. */
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    /** Shares of the lines edited, in percent. */
+    private static final int[] EDIT_PERCENTS = {1, 5, 20};
+
+    public static void main(String[] args) {
+        List<Integer> sizes = new ArrayList<>();
+        for (String arg : args) {
+            sizes.add(Integer.parseInt(arg));
+        }
+        if (sizes.isEmpty()) {
+            sizes = List.of(10_000, 100_000);
+        }
+        System.out.printf("%10s %8s %8s %12s %14s\n",
+                "lines", "edited", "hunks", "ms/diff", "lines/s");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int lines : sizes) {
+            for (int percent : EDIT_PERCENTS) {
+                String before = generate(lines, 0, 0);
+                String after = generate(lines, percent, 1);
+                int hunks = 0;
+                for (int i = 0; i < WARMUP_ROUNDS; i += 1) {
+                    hunks = diff(before, after);
+                }
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < MEASURED_ROUNDS; i += 1) {
+                    long start = System.nanoTime();
+                    hunks = diff(before, after);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%10d %7d%% %8d %12.2f %14.0f\n",
+                        lines, percent, hunks, best / 1e6, 2.0 * lines / (best / 1e9));
+            }
+        }
+    }
+
+    /** Diffs the lines of BEFORE and AFTER and returns the number of hunks,
+     *  so the work cannot be optimized away. */
+    private static int diff(String before, String after) {
+        return Diff.diff(Diff.lines(before), Diff.lines(after)).size();
+    }
+
+    /** Returns LINES config-like lines, with PERCENT of them, chosen by
+     *  SEED, replaced, deleted or followed by an inserted line. */
+    private static String generate(int lines, int percent, long seed) {
+        Random values = new Random(lines);
+        Random edits = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < lines; line += 1) {
+            String value = "setting" + line + " = " + values.nextInt(1000) + "\n";
+            if (edits.nextInt(100) >= percent) {
+                text.append(value);
+                continue;
+            }
+            switch (edits.nextInt(3)) {
+                case 0:
+                    text.append("setting").append(line).append(" = changed\n");
+                    break;
+                case 1:
+                    break;
+                default:
+                    text.append(value).append("inserted").append(line).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
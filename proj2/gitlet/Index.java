@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.io.File;
+import static gitlet.Utils.*;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** The index: the size, modification time and inode of every working file
+ *  whose blob ID has been computed, together with that ID. As long as a
+ *  file's stat data is unchanged its blob ID is taken from the index instead
+ *  of reading and hashing the file again. Saved as stages/index, next to the
+ *  two Stages.
+ *
+ *  A file modified in the same clock tick as the index was saved could keep
+ *  the same stat data, so, as in git, entries whose modification time is not
+ *  older than the index file itself are never trusted. Entries are kept in a
+ *  concurrent map, so that files can be looked up and recorded from many
+ *  threads at once without locking the whole index.
+ *  @author Boheng Mao
+ */
+public class Index implements Serializable {
+    private static final long serialVersionUID = -941752650153744314L;
+
+    /** The stat data and blob ID recorded for one file. */
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = -5831601594086335717L;
+        long size;
+        long modifiedTime;
+        String fileKey;
+        String blobID;
+    }
+
+    /** A mapping of file paths to their entries, where file paths is the key. */
+    public Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Modification time of the index file when it was read. */
+    private transient long savedTime = Long.MIN_VALUE;
+    /** True if entries changed since the index was read. */
+    private transient volatile boolean changed;
+
+    public static Index getFromFile() {
+        File infile = join(Repository.STAGE_FOLDER, "index");
+        if (!infile.isFile()) {
+            return new Index();
+        }
+        Index index = readObject(infile, Index.class);
+        if (!(index.entries instanceof ConcurrentHashMap)) {
+            // Indexes saved before entries were concurrent.
+            index.entries = new ConcurrentHashMap<>(index.entries);
+        }
+        Entry saved = stat(infile);
+        index.savedTime = saved == null ? Long.MIN_VALUE : saved.modifiedTime;
+        return index;
+    }
+
+    /** Saves the index if any entries changed since it was read. */
+    public void saveToFile() {
+        if (changed) {
+            File outfile = join(Repository.STAGE_FOLDER, "index");
+            // The index is a cache, so it is replaced atomically but kept
+            // out of the journal, and read-only commands save it too.
+            Transaction.replaceCache(outfile, serialize(this));
+            changed = false;
+        }
+    }
+
+    /** Returns the blob ID recorded for FILE if its stat data is unchanged,
+     *  and null otherwise. */
+    public String lookup(File file) {
+        Entry entry = entries.get(file.getPath());
+        if (entry == null) {
+            return null;
+        }
+        Entry current = stat(file);
+        if (current == null) {
+            entries.remove(file.getPath());
+            changed = true;
+            return null;
+        }
+        if (current.size != entry.size || current.modifiedTime != entry.modifiedTime
+                || !Objects.equals(current.fileKey, entry.fileKey)
+                || entry.modifiedTime >= savedTime) {
+            return null;
+        }
+        return entry.blobID;
+    }
+
+    /** Records BLOBID as the blob ID of the current contents of FILE. */
+    public void record(File file, String blobID) {
+        Entry entry = stat(file);
+        if (entry != null) {
+            entry.blobID = blobID;
+            entries.put(file.getPath(), entry);
+            changed = true;
+        }
+    }
+
+    /** Returns the stat data of FILE, or null if FILE does not exist. */
+    private static Entry stat(File file) {
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Entry entry = new Entry();
+            entry.size = attributes.size();
+            entry.modifiedTime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            Object fileKey = attributes.fileKey();
+            entry.fileKey = fileKey == null ? null : fileKey.toString();
+            return entry;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
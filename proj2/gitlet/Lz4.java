@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** A pure-Java implementation of the LZ4 block format, and streams that
+ *  split their contents into BLOCK_SIZE blocks compressed with it.
+ *
+ *  A block is a sequence of tokens. The high nibble of a token is the number
+ *  of literal bytes that follow it, the low nibble the length of a match
+ *  minus MIN_MATCH; a nibble of 15 is continued by bytes of 255 ending with
+ *  a smaller byte. Each match is a two-byte little-endian offset back into
+ *  the output. The last token of a block only has literals. Matches are
+ *  found through a hash table of the 4-byte sequences seen so far, keeping
+ *  the most recent position for each hash.
+ *
+ *  In the streams, every block is written as its length, then its stored
+ *  length, negated if the block did not compress and is stored raw, then
+ *  its stored bytes.
+ *  @author Boheng Mao
+ */
+class Lz4 {
+    /** Size of the blocks the streams compress one at a time. */
+    static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MIN_MATCH = 4;
+    /** The last bytes of a block are always literals. */
+    private static final int LAST_LITERALS = 5;
+    /** No match starts in the last bytes of a block. */
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_LOG = 12;
+
+    /** Returns the most bytes that compressing LENGTH bytes can take. */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /** Compresses SRC[SRCOFF..SRCOFF+LENGTH) into DST at offset 0, which
+     *  must have room for maxCompressedLength(LENGTH) bytes. Returns the
+     *  compressed length. */
+    static int compress(byte[] src, int srcOff, int length, byte[] dst) {
+        int end = srcOff + length;
+        int anchor = srcOff;
+        int op = 0;
+        if (length > MATCH_FIND_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            int limit = end - MATCH_FIND_LIMIT;
+            int matchLimit = end - LAST_LITERALS;
+            int ip = srcOff;
+            while (ip < limit) {
+                int h = hash(readInt(src, ip));
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != readInt(src, ip)) {
+                    ip += 1;
+                    continue;
+                }
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip -= 1;
+                    ref -= 1;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength += 1;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+        return writeSequence(src, anchor, end - anchor, 0, 0, dst, op);
+    }
+
+    /** Writes a token for the LITERALS bytes of SRC at ANCHOR followed by a
+     *  match of MATCHLENGTH bytes at OFFSET, or by no match if MATCHLENGTH is
+     *  0, to DST at OP. Returns the new output position. */
+    private static int writeSequence(byte[] src, int anchor, int literals, int offset,
+                                     int matchLength, byte[] dst, int op) {
+        int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+        dst[op++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+        if (matchLength > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            op = writeLength(matchCode, dst, op);
+        }
+        return op;
+    }
+
+    /** Writes the continuation bytes of a nibble holding LENGTH. */
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[op++] = (byte) 255;
+                length -= 255;
+            }
+            dst[op++] = (byte) length;
+        }
+        return op;
+    }
+
+    /** Decompresses the LENGTH bytes of SRC into DST, which must be exactly
+     *  as long as the original. */
+    static void decompress(byte[] src, int length, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        while (true) {
+            int token = src[ip++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip >= length) {
+                break;
+            }
+            int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+            ip += 2;
+            int matchLength = token & 0xf;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            // The match may overlap the bytes it produces, so copy one at a time.
+            for (int ref = op - offset; matchLength > 0; matchLength -= 1) {
+                dst[op++] = dst[ref++];
+            }
+        }
+        if (op != dst.length) {
+            throw error("Corrupt LZ4 block.");
+        }
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xff) | (src[i + 1] & 0xff) << 8
+                | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    /** Compresses what is written to it in blocks of BLOCK_SIZE. */
+    static class BlockOutputStream extends FilterOutputStream {
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        private final DataOutputStream data;
+        private int count;
+
+        BlockOutputStream(OutputStream out) {
+            super(out);
+            data = new DataOutputStream(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            block[count++] = (byte) b;
+            if (count == BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, BLOCK_SIZE - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == BLOCK_SIZE) {
+                    flushBlock();
+                }
+            }
+        }
+
+        /** Compresses and writes the buffered block, if any. */
+        private void flushBlock() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            int length = compress(block, 0, count, compressed);
+            data.writeInt(count);
+            if (length < count) {
+                data.writeInt(length);
+                data.write(compressed, 0, length);
+            } else {
+                data.writeInt(-count);
+                data.write(block, 0, count);
+            }
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBlock();
+            data.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            out.close();
+        }
+    }
+
+    /** Reads the blocks written by a BlockOutputStream. */
+    static class BlockInputStream extends InputStream {
+        private final DataInputStream in;
+        private byte[] block = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int pos;
+
+        BlockInputStream(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        /** Reads the next block. Returns false at the end of the stream. */
+        private boolean nextBlock() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException excp) {
+                return false;
+            }
+            int stored = in.readInt();
+            if (block.length != length) {
+                block = new byte[length];
+            }
+            if (stored < 0) {
+                in.readFully(block);
+            } else {
+                if (compressed.length < stored) {
+                    compressed = new byte[stored];
+                }
+                in.readFully(compressed, 0, stored);
+                decompress(compressed, stored, block);
+            }
+            pos = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (pos == block.length) {
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+            return block[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (pos == block.length) {
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, block.length - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -1,23 +1,77 @@
 package gitlet;
 
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
  */
 public class Main {
+    /** Commands that may change HEAD, the branches or the stages, and so
+     *  run in a Transaction. */
+    private static final Set<String> UPDATING_COMMANDS = Set.of("add", "commit", "rm",
+            "branch", "rm-branch", "checkout", "reset", "merge", "gc", "repack", "migrate",
+            "write-changed-paths", "add-remote", "rm-remote", "fetch", "push", "pull",
+            "receive-pack");
+    /** Commands that only read the repository, from a snapshot taken under
+     *  a shared lock. */
+    private static final Set<String> READING_COMMANDS = Set.of("log", "global-log", "find",
+            "status", "diff", "upload-pack");
+    /** Commands that run whatever the storage format of the repository:
+     *  those that create or convert it, and the daemon, which checks each
+     *  command it serves. */
+    private static final Set<String> FORMAT_FREE_COMMANDS = Set.of("init", "migrate", "daemon");
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        run(args);
+    }
+
+    /** Runs the command in ARGS, in a Transaction if it changes the
+     *  repository and on a snapshot if it only reads it. Also used by the
+     *  Daemon for each command it serves. */
+    static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            Utils.endCommand();
         }
         String firstArg = args[0];
+        if (!FORMAT_FREE_COMMANDS.contains(firstArg) && Repository.GITLET_DIR.isDirectory()) {
+            Repository.checkFormat();
+        }
+        Trace.begin(firstArg);
+        if (UPDATING_COMMANDS.contains(firstArg) && Repository.GITLET_DIR.isDirectory()) {
+            Transaction.begin();
+        } else if (READING_COMMANDS.contains(firstArg) && Repository.GITLET_DIR.isDirectory()) {
+            Transaction.snapshot();
+        }
+        try {
+            runCommand(firstArg, args);
+        } catch (Daemon.CommandEnded excp) {
+            // Ending a command early keeps what it wrote, as exiting does.
+            Transaction.commit();
+            Trace.end();
+            throw excp;
+        } catch (RuntimeException excp) {
+            Transaction.abort();
+            Trace.end();
+            throw excp;
+        } finally {
+            Transaction.dropSnapshot();
+        }
+        Trace.phase("transaction");
+        Transaction.commit();
+        Trace.end();
+    }
+
+    /** Runs the command FIRSTARG with all of ARGS. */
+    private static void runCommand(String firstArg, String[] args) {
         switch(firstArg) {
             case "init":
                 validNumArgs(args, 1);
@@ -35,22 +89,45 @@ public class Main {
                 validNumArgs(args, 2);
                 Repository.removeCommand(args[1]);
                 break;
-            case "log":
-                validNumArgs(args,1);
-                Repository.logCommand();
+            case "log": {
+                Paging paging = new Paging(args);
+                String path = null;
+                if (paging.operands.size() == 3 && paging.operands.get(1).equals("--")) {
+                    path = paging.operands.remove(2);
+                    paging.operands.remove(1);
+                }
+                paging.requireOperands(1);
+                Repository.logCommand(path, paging.skip, paging.maxCount);
                 break;
-            case "global-log":
-                validNumArgs(args, 1);
-                Repository.globalLogCommand();
+            }
+            case "global-log": {
+                Paging paging = new Paging(args);
+                paging.requireOperands(1);
+                Repository.globalLogCommand(paging.skip, paging.maxCount);
                 break;
-            case "find":
-                validNumArgs(args, 2);
-                Repository.findCommand(args[1]);
+            }
+            case "find": {
+                Paging paging = new Paging(args);
+                String mode = null;
+                if (paging.operands.size() == 3 && (paging.operands.get(1).equals("--token")
+                        || paging.operands.get(1).equals("--prefix"))) {
+                    mode = paging.operands.remove(1);
+                }
+                paging.requireOperands(2);
+                Repository.findCommand(paging.operands.get(1), mode, paging.skip, paging.maxCount);
                 break;
+            }
             case "status":
                 validNumArgs(args, 1);
                 Repository.statusCommand();
                 break;
+            case "diff":
+                if (args.length > 3) {
+                    validNumArgs(args, 3);
+                }
+                Repository.diffCommand(args.length > 1 ? args[1] : null,
+                        args.length > 2 ? args[2] : null);
+                break;
             case "branch":
                 validNumArgs(args, 2);
                 Repository.branchCommand(args[1]);
@@ -70,16 +147,137 @@ public class Main {
                 validNumArgs(args, 2);
                 Repository.mergeCommand(args[1]);
                 break;
+            case "gc":
+                Repository.gcCommand(true, depthOption(args, 1));
+                break;
+            case "repack":
+                validNumArgs(args, 1);
+                Repository.gcCommand(false, 0);
+                break;
+            case "migrate":
+                validNumArgs(args, 1);
+                Repository.migrateCommand();
+                break;
+            case "write-changed-paths":
+                validNumArgs(args, 1);
+                Repository.writeChangedPathsCommand();
+                break;
+            case "add-remote":
+                validNumArgs(args, 3);
+                Repository.addRemoteCommand(args[1], args[2]);
+                break;
+            case "rm-remote":
+                validNumArgs(args, 2);
+                Repository.rmRemoteCommand(args[1]);
+                break;
+            case "fetch": {
+                int depth = depthOption(args, 3);
+                Repository.fetchCommand(args[1], args[2], depth);
+                break;
+            }
+            case "push":
+                validNumArgs(args, 3);
+                Repository.pushCommand(args[1], args[2]);
+                break;
+            case "pull": {
+                int depth = depthOption(args, 3);
+                Repository.pullCommand(args[1], args[2], depth);
+                break;
+            }
+            case "upload-pack":
+                // The remote end of fetch, started by Remote.
+                validNumArgs(args, 1);
+                Remote.uploadPack();
+                break;
+            case "receive-pack":
+                // The remote end of push, started by Remote.
+                validNumArgs(args, 1);
+                Remote.receivePack();
+                break;
+            case "daemon":
+                if (args.length == 2 && args[1].equals("stop")) {
+                    Daemon.stop();
+                } else {
+                    validNumArgs(args, 1);
+                    Daemon.serve();
+                }
+                break;
             default:
                 System.out.println("No command with that name exists.");
-                System.exit(0);
+                Utils.endCommand();
         }
     }
 
     public static void validNumArgs(String[] args, int n) {
         if (args.length != n) {
             System.out.println("Incorrect operands.");
-            System.exit(0);
+            Utils.endCommand();
+        }
+    }
+
+    /** Returns the depth of the option --depth=N that may follow the N
+     *  arguments of a command that prunes or fetches history, or 0 if there
+     *  is none. Exits with a message if the arguments are not of that form
+     *  or the depth is not positive. */
+    private static int depthOption(String[] args, int n) {
+        if (args.length == n) {
+            return 0;
+        }
+        if (args.length == n + 1 && args[n].startsWith("--depth=")) {
+            try {
+                int depth = Integer.parseInt(args[n].substring("--depth=".length()));
+                if (depth > 0) {
+                    return depth;
+                }
+            } catch (NumberFormatException excp) {
+                // Reported below, as any other bad operand.
+            }
+        }
+        System.out.println("Incorrect operands.");
+        Utils.endCommand();
+        return 0;
+    }
+
+    /** The operands of a command that lists commits, and its paging
+     *  options --max-count=N and --skip=N, which may appear anywhere after
+     *  the command. */
+    private static class Paging {
+        final List<String> operands = new ArrayList<>();
+        int skip = 0;
+        /** Negative for no limit. */
+        int maxCount = -1;
+
+        /** Parses ARGS. */
+        Paging(String[] args) {
+            try {
+                for (String arg : args) {
+                    if (arg.startsWith("--max-count=")) {
+                        maxCount = parseCount(arg.substring("--max-count=".length()));
+                    } else if (arg.startsWith("--skip=")) {
+                        skip = parseCount(arg.substring("--skip=".length()));
+                    } else {
+                        operands.add(arg);
+                    }
+                }
+            } catch (NumberFormatException excp) {
+                operands.clear();
+            }
+        }
+
+        /** Checks that there are N operands, counting the command. */
+        void requireOperands(int n) {
+            if (operands.size() != n) {
+                System.out.println("Incorrect operands.");
+                Utils.endCommand();
+            }
+        }
+
+        private static int parseCount(String count) {
+            int result = Integer.parseInt(count);
+            if (result < 0) {
+                throw new NumberFormatException(count);
+            }
+            return result;
         }
     }
 
@@ -89,20 +287,20 @@ public class Main {
                 Repository.checkoutCommand1(args[2]);
             } else {
                 System.out.println("Incorrect operands.");
-                System.exit(0);
+                Utils.endCommand();
             }
         } else if (args.length == 4) {
             if (Objects.equals(args[2], "--")) {
                 Repository.checkoutCommand2(args[1], args[3]);
             } else {
                 System.out.println("Incorrect operands.");
-                System.exit(0);
+                Utils.endCommand();
             }
         } else if (args.length == 2) {
             Repository.checkoutCommand3(args[1]);
         } else {
             System.out.println("No command with that name exists.");
-            System.exit(0);
+            Utils.endCommand();
         }
     }
 }
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A least-recently-used cache of read-only memory mappings of pack files
+ *  and big loose objects, keyed by path, so that reading many objects of a
+ *  pack maps it once instead of opening and seeking it for every object.
+ *  Pack and object files are never changed once written, only deleted, so
+ *  a mapping never goes stale; on Unix it even stays readable after its
+ *  file is deleted, until the mapping is garbage collected.
+ *
+ *  Mapping a file costs more than reading a few pages of it, so loose
+ *  objects smaller than MIN_SIZE are read instead. At most MAX_MAPPINGS
+ *  files are kept mapped.
+ *  @author Boheng Mao
+ */
+class MappedFiles {
+    /** Loose objects smaller than this are not worth mapping. */
+    static final long MIN_SIZE = Blob.BUFFER_SIZE;
+    /** Most files kept mapped at once. */
+    static final int MAX_MAPPINGS = 64;
+
+    /** The mappings, least recently used first. */
+    private static final LinkedHashMap<String, MappedByteBuffer> MAPPINGS =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Returns a read-only buffer over the whole of FILE, sharing a cached
+     *  mapping, or null if FILE is too big to map as one buffer. Each call
+     *  returns a new buffer, so callers can move its position freely. */
+    static ByteBuffer map(File file) {
+        String key = file.getPath();
+        MappedByteBuffer mapping;
+        synchronized (MappedFiles.class) {
+            mapping = MAPPINGS.get(key);
+        }
+        if (mapping == null) {
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    return null;
+                }
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            synchronized (MappedFiles.class) {
+                MAPPINGS.put(key, mapping);
+                Iterator<Map.Entry<String, MappedByteBuffer>> eldest =
+                        MAPPINGS.entrySet().iterator();
+                while (MAPPINGS.size() > MAX_MAPPINGS && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        return mapping.asReadOnlyBuffer();
+    }
+
+    /** Returns the LENGTH bytes of BUFFER from OFFSET as a buffer of their
+     *  own, without copying them. */
+    static ByteBuffer slice(ByteBuffer buffer, long offset, int length) {
+        ByteBuffer result = buffer.duplicate();
+        result.position((int) offset);
+        result.limit((int) offset + length);
+        return result.slice();
+    }
+
+    /** Drops every mapping, as when packs or loose objects were deleted, so
+     *  that their space on disk can be reclaimed. */
+    static synchronized void clear() {
+        MAPPINGS.clear();
+    }
+
+    /** A stream over the remaining bytes of a buffer. */
+    static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** The three-way merge of the files of two commits with their split point.
+ *
+ *  A file changed on only one side takes that side's version. A file
+ *  changed differently on both sides is merged line by line: the changes of
+ *  each side against the split point are found with a Diff, changes to
+ *  separate lines are both applied, and only changes to the same or
+ *  adjacent lines conflict. Each conflict is written in place as
+ *
+ *      <<<<<<< HEAD
+ *      lines of the current branch
+ *      =======
+ *      lines of the given branch
+ *      >>>>>>>
+ *
+ *  Files deleted on one side and changed on the other, and files that are
+ *  not UTF-8 text, conflict as a whole, with an empty side for a deleted
+ *  file.
+ *
+ *  Files are independent, so they are resolved in parallel on a fork-join
+ *  pool, as many threads as WorkingTreeScanner uses. Resolving a file reads
+ *  its three versions once and stores the merged blob, so the caller only
+ *  has to update the working directory and the stages.
+ *  @author Boheng Mao
+ */
+class Merge {
+    /** Pieces of at most this many files are resolved on one thread. */
+    private static final int THRESHOLD = 4;
+
+    /** The result of merging one file. */
+    static class Outcome {
+        /** The merged blob, or null if the merge removes the file. */
+        final String blobID;
+        /** True if the merged file has conflicts. */
+        final boolean conflict;
+
+        Outcome(String blobID, boolean conflict) {
+            this.blobID = blobID;
+            this.conflict = conflict;
+        }
+    }
+
+    /** The result of merging the lines of a text. */
+    static class TextResult {
+        final String text;
+        final boolean conflict;
+
+        TextResult(String text, boolean conflict) {
+            this.text = text;
+            this.conflict = conflict;
+        }
+    }
+
+    /** Returns the outcomes of merging the files at PATHS of CURRENT and
+     *  BRANCH, whose split point is SPLIT, keyed by path. Files the merge
+     *  leaves as they are in CURRENT have no outcome. */
+    @SuppressWarnings("try")
+    static SortedMap<String, Outcome> resolve(List<String> paths, Commit split,
+                                              Commit current, Commit branch) {
+        try (Trace.Span span = Trace.span("merge-files")) {
+            ResolveTask task = new ResolveTask(paths, split, current, branch);
+            if (paths.size() <= THRESHOLD) {
+                return task.compute();
+            }
+            ForkJoinPool pool = new ForkJoinPool(WorkingTreeScanner.parallelism());
+            try {
+                return pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Returns the outcome of merging the file at PATH, which has blobs
+     *  SPLITID, CURRENTID and BRANCHID in the three commits (null where it
+     *  does not exist), or null if the merge leaves the current version. */
+    static Outcome resolve(String path, String splitID, String currentID, String branchID) {
+        if (Objects.equals(currentID, branchID) || Objects.equals(splitID, branchID)) {
+            return null;
+        }
+        if (Objects.equals(splitID, currentID)) {
+            return new Outcome(branchID, false);
+        }
+        String current = currentID == null ? "" : text(currentID);
+        String branch = branchID == null ? "" : text(branchID);
+        TextResult result;
+        if (currentID == null || branchID == null || current == null || branch == null) {
+            result = wholeFileConflict(current == null ? new String(contents(currentID),
+                    StandardCharsets.UTF_8) : current, branch == null
+                    ? new String(contents(branchID), StandardCharsets.UTF_8) : branch);
+        } else {
+            String base = splitID == null ? "" : text(splitID);
+            result = base == null ? wholeFileConflict(current, branch)
+                    : mergeText(base, current, branch);
+        }
+        Blob blob = Blob.store(new File(path), result.text.getBytes(StandardCharsets.UTF_8));
+        return new Outcome(blob.id, result.conflict);
+    }
+
+    /** Returns the contents of blob ID. */
+    private static byte[] contents(String id) {
+        return Blob.getFromFIle(id).readContents();
+    }
+
+    /** Returns the contents of blob ID as text, or null if they are not
+     *  UTF-8 text. */
+    private static String text(String id) {
+        return Diff.text(contents(id));
+    }
+
+    /** Returns CURRENT and BRANCH as one conflict. */
+    private static TextResult wholeFileConflict(String current, String branch) {
+        return new TextResult("<<<<<<< HEAD\n" + current + "=======\n" + branch + ">>>>>>>\n", true);
+    }
+
+    /** Returns the line-by-line merge of CURRENT and BRANCH, two versions of
+     *  BASE. */
+    static TextResult mergeText(String base, String current, String branch) {
+        List<String> baseLines = Diff.lines(base);
+        List<String> currentLines = Diff.lines(current);
+        List<String> branchLines = Diff.lines(branch);
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] baseNumbers = Diff.number(baseLines, numbers);
+        List<Diff.Hunk> ours = Diff.diff(baseNumbers, Diff.number(currentLines, numbers));
+        List<Diff.Hunk> theirs = Diff.diff(baseNumbers, Diff.number(branchLines, numbers));
+
+        StringBuilder out = new StringBuilder();
+        boolean conflict = false;
+        int basePos = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ours.size() || j < theirs.size()) {
+            // Start a chunk with whichever change comes first, then take in
+            // every change of either side that overlaps or touches it.
+            int lo = Math.min(i < ours.size() ? ours.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirs.size() ? theirs.get(j).aStart : Integer.MAX_VALUE);
+            int hi = lo;
+            int iEnd = i;
+            int jEnd = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (iEnd < ours.size() && ours.get(iEnd).aStart <= hi) {
+                    hi = Math.max(hi, ours.get(iEnd).aEnd);
+                    iEnd += 1;
+                    grew = true;
+                }
+                if (jEnd < theirs.size() && theirs.get(jEnd).aStart <= hi) {
+                    hi = Math.max(hi, theirs.get(jEnd).aEnd);
+                    jEnd += 1;
+                    grew = true;
+                }
+            }
+            append(out, baseLines, basePos, lo);
+            List<String> oursText = side(ours, i, iEnd, baseLines, currentLines, lo, hi);
+            List<String> theirsText = side(theirs, j, jEnd, baseLines, branchLines, lo, hi);
+            if (iEnd == i) {
+                appendAll(out, theirsText);
+            } else if (jEnd == j || oursText.equals(theirsText)) {
+                appendAll(out, oursText);
+            } else {
+                conflict = true;
+                out.append("<<<<<<< HEAD\n");
+                appendAll(out, oursText);
+                out.append("=======\n");
+                appendAll(out, theirsText);
+                out.append(">>>>>>>\n");
+            }
+            basePos = hi;
+            i = iEnd;
+            j = jEnd;
+        }
+        append(out, baseLines, basePos, baseLines.size());
+        return new TextResult(out.toString(), conflict);
+    }
+
+    /** Returns the lines a side has for base lines [LO, HI), given its
+     *  HUNKS from FROM to TO, which all fall in that range, and its LINES. */
+    private static List<String> side(List<Diff.Hunk> hunks, int from, int to,
+                                     List<String> baseLines, List<String> lines, int lo, int hi) {
+        if (from == to) {
+            return baseLines.subList(lo, hi);
+        }
+        Diff.Hunk first = hunks.get(from);
+        Diff.Hunk last = hunks.get(to - 1);
+        int start = first.bStart - (first.aStart - lo);
+        int end = last.bEnd + (hi - last.aEnd);
+        return lines.subList(start, end);
+    }
+
+    private static void append(StringBuilder out, List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            out.append(lines.get(k));
+        }
+    }
+
+    private static void appendAll(StringBuilder out, List<String> lines) {
+        append(out, lines, 0, lines.size());
+    }
+
+    /** Resolves a slice of the paths, splitting it if it is too long. */
+    private static class ResolveTask extends RecursiveTask<SortedMap<String, Outcome>> {
+        private static final long serialVersionUID = -5603698732363369187L;
+        private final List<String> paths;
+        private final Commit split;
+        private final Commit current;
+        private final Commit branch;
+
+        ResolveTask(List<String> paths, Commit split, Commit current, Commit branch) {
+            this.paths = paths;
+            this.split = split;
+            this.current = current;
+            this.branch = branch;
+        }
+
+        @Override
+        protected SortedMap<String, Outcome> compute() {
+            if (paths.size() <= THRESHOLD) {
+                SortedMap<String, Outcome> result = new TreeMap<>();
+                for (String path : paths) {
+                    Outcome outcome = resolve(path, split.blobID(path),
+                            current.blobID(path), branch.blobID(path));
+                    if (outcome != null) {
+                        result.put(path, outcome);
+                    }
+                }
+                return result;
+            }
+            int mid = paths.size() / 2;
+            ResolveTask left = new ResolveTask(paths.subList(0, mid), split, current, branch);
+            ResolveTask right = new ResolveTask(paths.subList(mid, paths.size()),
+                    split, current, branch);
+            left.fork();
+            SortedMap<String, Outcome> result = right.compute();
+            result.putAll(left.join());
+            return result;
+        }
+    }
+}
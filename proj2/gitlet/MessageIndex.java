@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The message index: an inverted index from the tokens of commit messages
+ *  to the commits whose messages contain them, so that find looks up a few
+ *  tokens instead of comparing every message.
+ *
+ *  A token is a maximal run of letters and digits, lowercased. Commits are
+ *  named by their position in the CommitIndex, so postings are small, sorted
+ *  and in the order the commits were made.
+ *
+ *  objects/info/message-index holds the magic "GMIX", a version, the number
+ *  of commit index records it covers and its number of tokens, then the
+ *  offset of each token's entry, then the entries in token order: the token
+ *  and the positions of the commits containing it. Lookups binary search the
+ *  offsets, reading only the entries they pass through. Commits made since
+ *  the file was written form its tail, tokenized from the commit index when
+ *  queried; once the tail reaches TAIL_LIMIT commits, the next commit merges
+ *  it into the file. Only commands holding the repository lock exclusively
+ *  write the file; find, which reads from a snapshot, tokenizes the whole
+ *  commit index while the file is missing or stale.
+ *  @author Boheng Mao
+ */
+class MessageIndex {
+    static final int MAGIC = 0x474d4958;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /** Most commits left in the tail before it is merged into the file. */
+    static final int TAIL_LIMIT = 256;
+
+    static final File INDEX_FILE = join(Repository.INFO_FOLDER, "message-index");
+
+    /** Returns the tokens of MESSAGE, in order and without duplicates. */
+    static List<String> tokens(String message) {
+        TreeSet<String> seen = new TreeSet<>();
+        List<String> result = new ArrayList<>();
+        for (String token : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty() && seen.add(token)) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    /** Brings the index up to date with the commit index after a commit,
+     *  merging the tail into the file once it is long enough. */
+    static void update() {
+        try (CommitIndex commits = CommitIndex.open()) {
+            int covered = covered();
+            if (covered < 0 || covered > commits.size()) {
+                write(commits, new TreeMap<>(), 0);
+            } else if (commits.size() - covered >= TAIL_LIMIT) {
+                write(commits, readAll(), covered);
+            }
+        }
+    }
+
+    /** Rewrites the index from all of the commit index. */
+    static void rebuild() {
+        try (CommitIndex commits = CommitIndex.open()) {
+            write(commits, new TreeMap<>(), 0);
+        }
+    }
+
+    /** Checks the index against the messages in the commit index, and
+     *  rebuilds it if they disagree. Returns true if it was consistent. */
+    static boolean check() {
+        try (CommitIndex commits = CommitIndex.open()) {
+            int covered = covered();
+            boolean consistent = covered >= 0 && covered <= commits.size()
+                    && readAll().equals(postings(commits, new TreeMap<>(), 0, covered));
+            if (!consistent) {
+                write(commits, new TreeMap<>(), 0);
+            }
+            return consistent;
+        }
+    }
+
+    /** Returns the number of commit index records covered by the index file,
+     *  or -1 if there is no valid file. */
+    private static int covered() {
+        if (!INDEX_FILE.isFile()) {
+            return -1;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(INDEX_FILE, "r")) {
+            if (in.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readInt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Adds the tokens of the records of COMMITS from FROM to TO to the
+     *  postings in RESULT, and returns it. */
+    private static TreeMap<String, List<Integer>> postings(CommitIndex commits,
+            TreeMap<String, List<Integer>> result, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            for (String token : tokens(commits.message(commits.read(i)))) {
+                result.computeIfAbsent(token, t -> new ArrayList<>()).add(i);
+            }
+        }
+        return result;
+    }
+
+    /** Writes the index of all of COMMITS, given the POSTINGS of its first
+     *  COVERED records. */
+    private static void write(CommitIndex commits, TreeMap<String, List<Integer>> postings,
+                              int covered) {
+        postings(commits, postings, covered, commits.size());
+        Repository.INFO_FOLDER.mkdir();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(commits.size());
+            out.writeInt(postings.size());
+            long offset = HEADER_SIZE + 8L * postings.size();
+            for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+                out.writeLong(offset);
+                offset += entrySize(entry.getKey(), entry.getValue().size());
+            }
+            for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (int position : entry.getValue()) {
+                    out.writeInt(position);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.replace(INDEX_FILE, bytes.toByteArray());
+    }
+
+    /** Returns the size of the entry of TOKEN with COUNT positions. */
+    private static long entrySize(String token, int count) {
+        int utfLength = 0;
+        for (int i = 0; i < token.length(); i += 1) {
+            char c = token.charAt(i);
+            utfLength += c >= 1 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return 2 + utfLength + 4 + 4L * count;
+    }
+
+    /** Returns the postings of every token in the index file. */
+    private static TreeMap<String, List<Integer>> readAll() {
+        TreeMap<String, List<Integer>> result = new TreeMap<>();
+        try (RandomAccessFile in = new RandomAccessFile(INDEX_FILE, "r")) {
+            in.seek(12);
+            int count = in.readInt();
+            in.seek(HEADER_SIZE + 8L * count);
+            for (int i = 0; i < count; i += 1) {
+                String token = in.readUTF();
+                result.put(token, readPositions(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    private static List<Integer> readPositions(RandomAccessFile in) throws IOException {
+        int count = in.readInt();
+        List<Integer> positions = new ArrayList<>(count);
+        for (int k = 0; k < count; k += 1) {
+            positions.add(in.readInt());
+        }
+        return positions;
+    }
+
+    /** Returns the positions in COMMITS of the commits whose messages
+     *  contain every word of QUERY as a token, or, if PREFIX, as the start
+     *  of a token, in the order they were made. A query without words
+     *  matches every commit. If the index file is missing or stale, it is
+     *  rewritten when the repository is locked exclusively, and otherwise
+     *  every message in the commit index is tokenized instead. */
+    static List<Integer> search(CommitIndex commits, String query, boolean prefix) {
+        int covered = covered();
+        if ((covered < 0 || covered > commits.size()) && Transaction.isOpen()) {
+            write(commits, new TreeMap<>(), 0);
+            covered = commits.size();
+        }
+        List<String> words = tokens(query);
+        int[] result = null;
+        if (covered < 0 || covered > commits.size()) {
+            for (String word : words) {
+                result = intersect(result, scan(commits, 0, word, prefix, new TreeSet<>()));
+                if (result.length == 0) {
+                    break;
+                }
+            }
+        } else {
+            try (RandomAccessFile in = new RandomAccessFile(INDEX_FILE, "r")) {
+                in.seek(12);
+                int count = in.readInt();
+                for (String word : words) {
+                    TreeSet<Integer> matches = lookup(in, count, word, prefix);
+                    result = intersect(result, scan(commits, covered, word, prefix, matches));
+                    if (result.length == 0) {
+                        break;
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        List<Integer> positions = new ArrayList<>();
+        if (result == null) {
+            for (int i = 0; i < commits.size(); i += 1) {
+                positions.add(i);
+            }
+        } else {
+            for (int position : result) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    /** Adds to MATCHES the positions from FROM on of the commits of COMMITS
+     *  with WORD as a token, or with a token starting with WORD if PREFIX,
+     *  and returns it. */
+    private static TreeSet<Integer> scan(CommitIndex commits, int from, String word,
+                                         boolean prefix, TreeSet<Integer> matches) {
+        for (int i = from; i < commits.size(); i += 1) {
+            for (String token : tokens(commits.message(commits.read(i)))) {
+                if (prefix ? token.startsWith(word) : token.equals(word)) {
+                    matches.add(i);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /** Returns the positions of the commits with WORD as a token, or with a
+     *  token starting with WORD if PREFIX, from the COUNT entries of IN. */
+    private static TreeSet<Integer> lookup(RandomAccessFile in, int count, String word,
+                                           boolean prefix) throws IOException {
+        // Find the first token not less than WORD.
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokenAt(in, mid).compareTo(word) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        TreeSet<Integer> result = new TreeSet<>();
+        for (int i = low; i < count; i += 1) {
+            String token = tokenAt(in, i);
+            if (!(prefix ? token.startsWith(word) : token.equals(word))) {
+                break;
+            }
+            result.addAll(readPositions(in));
+        }
+        return result;
+    }
+
+    /** Returns the Ith token of IN, leaving IN at its positions. */
+    private static String tokenAt(RandomAccessFile in, int i) throws IOException {
+        in.seek(HEADER_SIZE + 8L * i);
+        in.seek(in.readLong());
+        return in.readUTF();
+    }
+
+    /** Returns the positions in both SORTED, which is null for all
+     *  positions, and MATCHES. */
+    private static int[] intersect(int[] sorted, TreeSet<Integer> matches) {
+        if (sorted == null) {
+            return matches.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return Arrays.stream(sorted).filter(matches::contains).toArray();
+    }
+
+    /** Returns the positions of the commits whose message is exactly
+     *  MESSAGE. Messages with tokens are looked up by them; others have to be
+     *  compared with every message. */
+    static List<Integer> exact(CommitIndex commits, String message) {
+        List<Integer> result = new ArrayList<>();
+        for (int position : search(commits, message, false)) {
+            if (Objects.equals(commits.message(commits.read(position)), message)) {
+                result.add(position);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Converts a .gitlet directory written by an older version of gitlet, whose
+ *  commits, stages and branches are Java-serialized and whose blobs are
+ *  serialized Blob objects, to the compact formats used now, and records
+ *  the current format in its Config. Commits that
+ *  list their files directly are rewritten to refer to a tree. Objects already
+ *  in the current format are left alone, so running it twice is harmless.
+ *  Packed objects are rewritten loose and then folded back into one pack.
+ *  @author Boheng Mao
+ */
+class Migrator {
+
+    /** Migrates the repository in the current directory. */
+    static void migrate() {
+        boolean repack = false;
+        for (String id : ObjectStore.list(ObjectType.COMMIT)) {
+            byte[] contents = ObjectStore.read(ObjectType.COMMIT, id);
+            // Older commits list every file; encoding them again stores a tree instead.
+            byte[] encoded = Commit.decode(contents).encode();
+            if (!Arrays.equals(contents, encoded)) {
+                repack |= !join(ObjectType.COMMIT.folder, id).isFile();
+                ObjectStore.write(ObjectType.COMMIT, id, encoded);
+            }
+        }
+        for (String id : ObjectStore.list(ObjectType.BLOB)) {
+            byte[] contents = oldBlobContents(id);
+            if (contents != null) {
+                repack |= !join(ObjectType.BLOB.folder, id).isFile();
+                ObjectStore.write(ObjectType.BLOB, id, contents);
+            }
+        }
+        for (String stageName : List.of("addStage", "removeStage")) {
+            Stage stage = Stage.getFromFile(stageName);
+            // Stages name their files by absolute path, as older commits do.
+            stage.stageBlobMap = Commit.workingPaths(stage.stageBlobMap);
+            stage.saveToFile();
+        }
+        for (String branchName : plainFilenamesIn(Repository.BRANCH_FOLDER)) {
+            Branch.getFromFile(branchName).saveToFile();
+        }
+        if (repack) {
+            ObjectStore.repack(true);
+        }
+        Config.set("format", Config.FORMAT);
+    }
+
+    /** Returns the contents of the blob with ID if it is stored as a Blob
+     *  serialized by an older version of gitlet, and null if it is stored
+     *  raw. Raw contents may look serialized, and may even be a whole
+     *  serialized Blob copied from another repository, so a blob only counts
+     *  as old if it holds its own ID: the ID of raw contents is their hash,
+     *  which they cannot contain. */
+    private static byte[] oldBlobContents(String id) {
+        try (InputStream in = ObjectStore.open(ObjectType.BLOB, id)) {
+            if (!Codec.isSerialized(in.readNBytes(4))) {
+                return null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // Old blobs were serialized whole, so they fit in an array.
+        if (ObjectStore.size(ObjectType.BLOB, id) >= Integer.MAX_VALUE) {
+            return null;
+        }
+        try {
+            Blob old = deserialize(ObjectStore.read(ObjectType.BLOB, id), Blob.class);
+            return id.equals(old.id) && old.byteContent != null ? old.byteContent : null;
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+}
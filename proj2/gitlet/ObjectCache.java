@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A least-recently-used cache of objects read from the object store, keyed
+ *  by object ID. Objects are immutable once stored, so cached copies never go
+ *  stale; the cache only bounds how many bytes of them are kept in memory.
+ *
+ *  The capacity in bytes is taken from the GITLET_CACHE_SIZE environment
+ *  variable, defaulting to DEFAULT_CAPACITY. If GITLET_DEBUG is set, the hit
+ *  and miss counts are printed to standard error when gitlet exits.
+ *  @author Boheng Mao
+ */
+class ObjectCache {
+    /** Default capacity of the cache in bytes. */
+    static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    /** A cached object and the number of bytes it was read from. */
+    private static class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** The cached entries, least recently used first. */
+    private static final LinkedHashMap<String, Entry> ENTRIES =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static final long CAPACITY = capacity();
+    private static long size;
+    private static long hits;
+    private static long misses;
+
+    static {
+        if (System.getenv("GITLET_DEBUG") != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    System.err.printf("object cache: %d hits, %d misses, %d/%d bytes%n",
+                            hits, misses, size, CAPACITY)));
+        }
+    }
+
+    /** Returns the configured capacity of the cache in bytes. */
+    private static long capacity() {
+        String value = System.getenv("GITLET_CACHE_SIZE");
+        if (value == null) {
+            return DEFAULT_CAPACITY;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            return DEFAULT_CAPACITY;
+        }
+    }
+
+    /** Returns the object cached under ID, or null if it is not cached or
+     *  is not an instance of EXPECTEDCLASS. */
+    static synchronized <T> T get(String id, Class<T> expectedClass) {
+        Entry entry = ENTRIES.get(id);
+        if (entry == null || !expectedClass.isInstance(entry.value)) {
+            misses += 1;
+            Trace.count(Trace.Counter.CACHE_MISSES, 1);
+            return null;
+        }
+        hits += 1;
+        Trace.count(Trace.Counter.CACHE_HITS, 1);
+        return expectedClass.cast(entry.value);
+    }
+
+    /** Returns true if an object of SIZE bytes is small enough to cache. */
+    static boolean fits(long size) {
+        return size <= CAPACITY / 8;
+    }
+
+    /** Drops every cached object, as when objects read from an untrusted
+     *  pack turned out to be bad. */
+    static synchronized void clear() {
+        ENTRIES.clear();
+        size = 0;
+    }
+
+    /** Caches VALUE, read from SIZE bytes, under ID, evicting the least
+     *  recently used entries to stay within the capacity. Objects too big
+     *  to fit are not cached. */
+    static synchronized void put(String id, Object value, long size) {
+        if (!fits(size)) {
+            return;
+        }
+        Entry old = ENTRIES.put(id, new Entry(value, size));
+        ObjectCache.size += size - (old == null ? 0 : old.size);
+        Iterator<Map.Entry<String, Entry>> eldest = ENTRIES.entrySet().iterator();
+        while (ObjectCache.size > CAPACITY && eldest.hasNext()) {
+            ObjectCache.size -= eldest.next().getValue().size;
+            eldest.remove();
+        }
+    }
+}
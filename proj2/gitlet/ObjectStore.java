@@ -0,0 +1,417 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/** Reads and writes the objects of a gitlet repository.
+ *  New objects are written loose, one file per object under objects/commits,
+ *  objects/trees and objects/blobs; blob contents are stored raw, commits
+ *  and trees encoded, and loose objects are compressed as configured (see
+ *  Compression), which reads undo transparently. The gc and repack commands
+ *  fold loose objects into pack files under objects/packs; reads look at
+ *  loose objects first and then fall back to the packs, so callers never
+ *  need to know where an object lives.
+ *
+ *  A loose object is written to a temporary file and renamed into place,
+ *  so its file is either complete or absent. The files are not forced one
+ *  by one: the Transaction forces every object it wrote in one batch before
+ *  journaling the updates that may refer to them.
+ *  @author Boheng Mao
+ */
+class ObjectStore {
+    /** Blobs bigger than this are neither stored as deltas nor used as
+     *  delta bases, to bound the memory used by repacking. */
+    static final long MAX_DELTA_SIZE = 4L * 1024 * 1024;
+    /** Number of preceding blobs tried as the delta base of each blob. */
+    static final int DELTA_WINDOW = 10;
+    /** Supplies objects of this repository to pack files being written. */
+    private static final PackFile.ObjectSource SOURCE = new PackFile.ObjectSource() {
+        @Override
+        public long size(ObjectType type, String id) {
+            return ObjectStore.size(type, id);
+        }
+
+        @Override
+        public InputStream open(ObjectType type, String id) {
+            return ObjectStore.open(type, id);
+        }
+    };
+
+    /** The packs of the current repository, opened on first use. */
+    private static List<PackFile> packs;
+    /** The names of the files in the packs folder when packs was opened. */
+    private static List<String> packNames;
+
+    /** Returns the packs of the current repository. */
+    private static synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(Repository.PACK_FOLDER);
+            packNames = names;
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        packs.add(PackFile.open(join(Repository.PACK_FOLDER, name)));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Drops the open packs if the packs folder changed since they were
+     *  opened, as when another process repacked, so that a Daemon serving
+     *  many commands sees the current packs. */
+    static synchronized void refresh() {
+        if (packs != null && !Objects.equals(packNames, plainFilenamesIn(Repository.PACK_FOLDER))) {
+            packs = null;
+            MappedFiles.clear();
+        }
+    }
+
+    /** Returns the contents of the object of TYPE with ID. Throws
+     *  IllegalArgumentException if there is no such object. */
+    static byte[] read(ObjectType type, String id) {
+        Trace.count(Trace.Counter.OBJECT_READS, 1);
+        File loose = join(type.folder, id);
+        if (loose.isFile()) {
+            return Compression.decompress(readContents(loose));
+        }
+        for (PackFile pack : packs()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                return pack.read(i);
+            }
+        }
+        throw new IllegalArgumentException("No such object: " + id);
+    }
+
+    /** Returns a stream over the contents of the object of TYPE with ID, for
+     *  objects too big to read whole. */
+    static InputStream open(ObjectType type, String id) {
+        Trace.count(Trace.Counter.OBJECT_READS, 1);
+        File loose = join(type.folder, id);
+        try {
+            if (loose.isFile()) {
+                return Compression.decompressor(Files.newInputStream(loose.toPath()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (PackFile pack : packs()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                return pack.open(i);
+            }
+        }
+        throw new IllegalArgumentException("No such object: " + id);
+    }
+
+    /** Returns the contents of the object of TYPE with ID as a read-only
+     *  buffer over a memory mapping of the file holding them, so they can
+     *  be copied without passing through the heap, or null if they are not
+     *  stored raw or are too small to be worth mapping; such objects have to
+     *  be read with read or open. */
+    static ByteBuffer map(ObjectType type, String id) {
+        File loose = join(type.folder, id);
+        if (loose.isFile()) {
+            if (loose.length() < MappedFiles.MIN_SIZE) {
+                return null;
+            }
+            ByteBuffer mapped = MappedFiles.map(loose);
+            mapped = mapped == null ? null : Compression.raw(mapped);
+            Trace.count(Trace.Counter.OBJECT_READS, mapped == null ? 0 : 1);
+            return mapped;
+        }
+        for (PackFile pack : packs()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                ByteBuffer mapped = pack.map(i);
+                Trace.count(Trace.Counter.OBJECT_READS, mapped == null ? 0 : 1);
+                return mapped;
+            }
+        }
+        throw new IllegalArgumentException("No such object: " + id);
+    }
+
+    /** Returns the length of the contents of the object of TYPE with ID. */
+    static long size(ObjectType type, String id) {
+        File loose = join(type.folder, id);
+        if (loose.isFile()) {
+            return Compression.length(loose);
+        }
+        for (PackFile pack : packs()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                return pack.length(i);
+            }
+        }
+        throw new IllegalArgumentException("No such object: " + id);
+    }
+
+    /** Returns the object of TYPE with ID, an EXPECTEDCLASS decoded from its
+     *  contents by DECODER. Objects are kept in the ObjectCache, so reading
+     *  the same object again does not go back to disk. */
+    static <T> T readObject(ObjectType type, String id, Class<T> expectedClass,
+                            Function<byte[], T> decoder) {
+        T result = ObjectCache.get(id, expectedClass);
+        if (result == null) {
+            byte[] contents = read(type, id);
+            result = decoder.apply(contents);
+            ObjectCache.put(id, result, contents.length);
+        }
+        return result;
+    }
+
+    /** Writes CONTENTS as the loose object of TYPE with ID. */
+    static void write(ObjectType type, String id, byte[] contents) {
+        Trace.count(Trace.Counter.OBJECT_WRITES, 1);
+        // Repositories from before trees existed have no trees folder yet.
+        type.folder.mkdir();
+        File tmp = tempFile();
+        writeContents(tmp, (Object) Compression.configured().compress(contents));
+        install(tmp, join(type.folder, id));
+    }
+
+    /** Returns a new, empty temporary file in the objects folder, to be
+     *  filled through Compression.configured().compressor and then passed to
+     *  moveInto. */
+    static File tempFile() {
+        try {
+            return Files.createTempFile(Repository.OBJECT_DIR.toPath(), "tmp-", "").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes the temporary file TMP the loose object of TYPE with ID, or
+     *  deletes it if that object is already stored. */
+    static void moveInto(ObjectType type, String id, File tmp) {
+        if (contains(type, id)) {
+            tmp.delete();
+            return;
+        }
+        Trace.count(Trace.Counter.OBJECT_WRITES, 1);
+        if (Compression.configured() == Compression.NONE) {
+            Compression.reframe(tmp);
+        }
+        install(tmp, join(type.folder, id));
+    }
+
+    /** Renames the complete temporary file TMP to the object file TARGET in
+     *  one step, and has the open Transaction force it to disk before it
+     *  commits. */
+    private static void install(File tmp, File target) {
+        try {
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.wroteObject(target);
+    }
+
+    /** Returns true if the object of TYPE with ID is stored. */
+    static boolean contains(ObjectType type, String id) {
+        return join(type.folder, id).isFile() || isPacked(id);
+    }
+
+    /** Returns true if the object with ID is in one of the packs. */
+    private static boolean isPacked(String id) {
+        for (PackFile pack : packs()) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the IDs of all objects of TYPE, loose or packed, in
+     *  lexicographic order. */
+    static List<String> list(ObjectType type) {
+        TreeSet<String> result = new TreeSet<>(looseIDs(type));
+        for (PackFile pack : packs()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (pack.typeAt(i) == type) {
+                    result.add(pack.idAt(i));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the IDs of the loose objects of TYPE. */
+    private static List<String> looseIDs(ObjectType type) {
+        List<String> names = plainFilenamesIn(type.folder);
+        return names == null ? new ArrayList<>() : names;
+    }
+
+    /** Folds the loose objects into a new pack and deletes them. If ALL,
+     *  the objects of the existing packs are folded in as well and the old
+     *  packs are deleted, leaving a single pack. Returns the number of
+     *  objects written to the new pack. */
+    static int repack(boolean all) {
+        return repack(all, null);
+    }
+
+    /** Repacks as repack(ALL) does, but if KEEP is not null, only the
+     *  objects in it are written to the new pack, and every other object is
+     *  deleted. KEEP requires ALL. */
+    static int repack(boolean all, Set<String> keep) {
+        Repository.PACK_FOLDER.mkdir();
+        // Commits from before trees existed store their trees on first use,
+        // so they must be listed before the loose objects are.
+        List<String> trees = new ArrayList<>();
+        for (String id : list(ObjectType.COMMIT)) {
+            if (keep == null || keep.contains(id)) {
+                trees.add(Commit.getFromFile(id).treeID());
+            }
+        }
+        SortedMap<String, ObjectType> objects = new TreeMap<>();
+        List<File> looseFiles = new ArrayList<>();
+        for (ObjectType type : ObjectType.values()) {
+            for (String id : looseIDs(type)) {
+                looseFiles.add(join(type.folder, id));
+                if ((all || !isPacked(id)) && (keep == null || keep.contains(id))) {
+                    objects.put(id, type);
+                }
+            }
+        }
+        List<PackFile> oldPacks = new ArrayList<>();
+        if (all) {
+            oldPacks.addAll(packs());
+            for (PackFile pack : oldPacks) {
+                for (int i = 0; i < pack.size(); i += 1) {
+                    if (keep == null || keep.contains(pack.idAt(i))) {
+                        objects.put(pack.idAt(i), pack.typeAt(i));
+                    }
+                }
+            }
+        }
+        if (!objects.isEmpty()) {
+            File idxFile = writePack(Repository.PACK_FOLDER, objects, trees);
+            for (PackFile pack : oldPacks) {
+                if (!idxFile.getName().equals(pack.name() + ".idx")) {
+                    pack.delete();
+                }
+            }
+        }
+        for (File file : looseFiles) {
+            file.delete();
+        }
+        packs = null;
+        MappedFiles.clear();
+        return objects.size();
+    }
+
+    /** Writes OBJECTS, a mapping of the IDs of objects of this repository
+     *  to their types, as a new pack in DIR, storing blobs as deltas where
+     *  that pays. The blobs are grouped by the paths they have in the trees
+     *  with IDs TREES. Returns the index file of the new pack. */
+    static File writePack(File dir, SortedMap<String, ObjectType> objects, List<String> trees) {
+        Map<String, Delta> deltas = chooseDeltas(objects, Tree.blobPaths(trees));
+        return PackFile.write(dir, objects, deltas, SOURCE);
+    }
+
+    /** Adds the pack NAME, whose files were received as PACKFILE and
+     *  IDXFILE, to the packs of this repository. The index is moved in
+     *  last, so the pack is only visible once complete. */
+    static synchronized void addPack(String name, File packFile, File idxFile) {
+        Repository.PACK_FOLDER.mkdir();
+        try {
+            Files.move(packFile.toPath(), join(Repository.PACK_FOLDER, name + ".pack").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.move(idxFile.toPath(), join(Repository.PACK_FOLDER, name + ".idx").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction.wroteObject(join(Repository.PACK_FOLDER, name + ".pack"));
+        Transaction.wroteObject(join(Repository.PACK_FOLDER, name + ".idx"));
+        packs = null;
+    }
+
+    /** Chooses delta bases for the blobs among OBJECTS, given PATHS, the
+     *  path each committed blob appears at. Blobs are ordered by path and
+     *  then by size, largest first, so that the versions of one file sit
+     *  next to each other and deltas mostly delete. Each blob is tried
+     *  against the DELTA_WINDOW blobs before it, and stored as the smallest
+     *  delta found if that is at most half its size, less for bases deep in
+     *  a chain, and its chain of bases stays within PackFile.MAX_DEPTH. Returns the chosen deltas by ID. */
+    private static Map<String, Delta> chooseDeltas(SortedMap<String, ObjectType> objects,
+                                                   Map<String, String> paths) {
+        Map<String, Long> sizes = new HashMap<>();
+        for (Map.Entry<String, ObjectType> entry : objects.entrySet()) {
+            if (entry.getValue() == ObjectType.BLOB) {
+                long size = size(ObjectType.BLOB, entry.getKey());
+                if (size >= Delta.BLOCK && size <= MAX_DELTA_SIZE) {
+                    sizes.put(entry.getKey(), size);
+                }
+            }
+        }
+        List<String> candidates = new ArrayList<>(sizes.keySet());
+        candidates.sort(Comparator.comparing((String id) -> paths.getOrDefault(id, ""))
+                .thenComparing(id -> -sizes.get(id))
+                .thenComparing(id -> id));
+        Map<String, Delta> deltas = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        Deque<String> window = new ArrayDeque<>();
+        Map<String, byte[]> windowContents = new HashMap<>();
+        for (String id : candidates) {
+            byte[] contents = read(ObjectType.BLOB, id);
+            // Blobs of older versions are serialized and are left as they are.
+            if (Codec.isSerialized(contents)) {
+                continue;
+            }
+            Delta best = null;
+            for (String baseID : window) {
+                int depth = depths.get(baseID);
+                if (depth >= PackFile.MAX_DEPTH) {
+                    continue;
+                }
+                // As in git, deeper bases must give smaller deltas, so that
+                // chains branch out instead of all reaching MAX_DEPTH.
+                long limit = contents.length / 2 * (PackFile.MAX_DEPTH - depth) / PackFile.MAX_DEPTH;
+                byte[] delta = Delta.encode(windowContents.get(baseID), contents);
+                if (delta.length <= limit
+                        && (best == null || delta.length < best.bytes.length)) {
+                    best = new Delta(baseID, delta);
+                }
+            }
+            if (best != null) {
+                deltas.put(id, best);
+            }
+            depths.put(id, best == null ? 0 : depths.get(best.baseID) + 1);
+            window.addLast(id);
+            windowContents.put(id, contents);
+            if (window.size() > DELTA_WINDOW) {
+                windowContents.remove(window.removeFirst());
+            }
+        }
+        return deltas;
+    }
+}
@@ -0,0 +1,33 @@
+package gitlet;
+
+import java.io.File;
+
+/** The kinds of objects kept in the gitlet object store. Each type has a
+ *  one-byte code used inside pack files and a folder for its loose objects.
+ *  @author Boheng Mao
+ */
+public enum ObjectType {
+    COMMIT((byte) 1, Repository.COMMIT_FOLDER),
+    BLOB((byte) 2, Repository.BLOB_FOLDER),
+    TREE((byte) 3, Repository.TREE_FOLDER);
+
+    /** The code written for this type in pack files. */
+    public final byte code;
+    /** The folder holding loose objects of this type. */
+    public final File folder;
+
+    ObjectType(byte code, File folder) {
+        this.code = code;
+        this.folder = folder;
+    }
+
+    /** Returns the type whose pack code is CODE. */
+    public static ObjectType fromCode(byte code) {
+        for (ObjectType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw Utils.error("Unknown object type %d in pack.", code);
+    }
+}
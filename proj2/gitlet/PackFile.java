@@ -0,0 +1,430 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static gitlet.Utils.*;
+
+/** A read-only pack of gitlet objects.
+ *  A pack is a pair of files in the packs folder:
+ *
+ *  pack-ID.pack -- the magic "GPAK", a version and an object count, followed
+ *                  by the objects, each written as its type code, its length
+ *                  (a long since version 3, an int before) and its bytes.
+ *                  The type code of an object stored as a Delta against
+ *                  another object of the pack has DELTA_FLAG set. New
+ *                  objects are only ever appended by writing a whole new
+ *                  pack.
+ *  pack-ID.idx  -- the magic "GIDX" and a version, a 256-entry fan-out table
+ *                  counting the objects whose first ID byte is at most i,
+ *                  then the raw 20-byte object IDs in sorted order, and in
+ *                  the same order each object's type code, offset into the
+ *                  pack and stored length (a long since version 3, an int
+ *                  before), then (since version 2) its full length and the
+ *                  position of its delta base, or -1.
+ *
+ *  Looking up an object is a binary search over the IDs in its fan-out
+ *  bucket, so only the index has to be read to find anything in the pack.
+ *  The pack itself is read through a memory mapping shared by every read of
+ *  it (see MappedFiles), so reading an object is a copy out of the page
+ *  cache rather than an open, a seek and a read.
+ *  Reading a delta reads its chain of bases first; the chains are at most
+ *  MAX_DEPTH long and decoded bases are kept in the ObjectCache.
+ *  @author Boheng Mao
+ */
+class PackFile {
+    /** Magic numbers and format version of pack and index files. */
+    static final int PACK_MAGIC = 0x4750414b;
+    static final int INDEX_MAGIC = 0x47494458;
+    static final int VERSION = 3;
+    /** Set in the pack type code of objects stored as deltas. */
+    static final int DELTA_FLAG = 0x80;
+    /** Longest chain of deltas leading to an object, as in git. */
+    static final int MAX_DEPTH = 50;
+    /** Number of bytes in a raw object ID. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** The pack file holding the object contents. */
+    private final File packFile;
+    /** Cumulative counts of IDs by first byte. */
+    private final int[] fanout = new int[256];
+    /** The sorted raw IDs, ID_BYTES bytes apiece. */
+    private final byte[] ids;
+    private final byte[] types;
+    private final long[] offsets;
+    private final long[] lengths;
+    private final long[] sizes;
+    private final int[] bases;
+    /** Number of bytes before the contents of each object in the pack: its
+     *  type code and its length. */
+    private final int headerSize;
+
+    /** Reads the index IDXFILE of the pack PACKFILE. */
+    private PackFile(File idxFile, File packFile) {
+        String name = idxFile.getName();
+        this.packFile = packFile;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(idxFile.toPath())))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != INDEX_MAGIC || version < 1 || version > VERSION) {
+                throw error("Bad pack index %s.", name);
+            }
+            headerSize = version < 3 ? 1 + 4 : 1 + 8;
+            for (int i = 0; i < fanout.length; i += 1) {
+                fanout[i] = in.readInt();
+            }
+            int count = fanout[255];
+            ids = new byte[count * ID_BYTES];
+            in.readFully(ids);
+            types = new byte[count];
+            in.readFully(types);
+            offsets = new long[count];
+            for (int i = 0; i < count; i += 1) {
+                offsets[i] = in.readLong();
+            }
+            lengths = new long[count];
+            for (int i = 0; i < count; i += 1) {
+                lengths[i] = version < 3 ? in.readInt() : in.readLong();
+            }
+            sizes = new long[count];
+            bases = new int[count];
+            for (int i = 0; i < count; i += 1) {
+                sizes[i] = version == 1 ? lengths[i] : in.readLong();
+            }
+            for (int i = 0; i < count; i += 1) {
+                bases[i] = version == 1 ? -1 : in.readInt();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the pack whose index file is IDXFILE. */
+    static PackFile open(File idxFile) {
+        String name = idxFile.getName();
+        return new PackFile(idxFile, join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack"));
+    }
+
+    /** Returns the pack in PACKFILE whose index is IDXFILE, for a pack whose
+     *  files are not yet named as in the packs folder. */
+    static PackFile open(File idxFile, File packFile) {
+        return new PackFile(idxFile, packFile);
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return types.length;
+    }
+
+    /** Returns the ID of the Ith object in sorted order. */
+    String idAt(int i) {
+        return bytesToHex(ids, i * ID_BYTES, ID_BYTES);
+    }
+
+    /** Returns the type of the Ith object in sorted order. */
+    ObjectType typeAt(int i) {
+        return ObjectType.fromCode(types[i]);
+    }
+
+    /** Returns the position of the object with ID in this pack, or -1 if the
+     *  pack does not contain it. */
+    int find(String id) {
+        byte[] key = hexToBytes(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout[first - 1];
+        int hi = fanout[first] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the Ith ID of this pack with the raw ID KEY. */
+    private int compareId(int i, byte[] key) {
+        int base = i * ID_BYTES;
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = Integer.compare(ids[base + k] & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the contents of the Ith object in sorted order. */
+    byte[] read(int i) {
+        byte[] stored = readStored(i);
+        if (bases[i] < 0) {
+            return stored;
+        }
+        return Delta.apply(readBase(bases[i]), stored);
+    }
+
+    /** Returns the contents of the Ith object, the base of a delta, from
+     *  the ObjectCache if it was decoded before. */
+    private byte[] readBase(int i) {
+        String id = idAt(i);
+        byte[] result = ObjectCache.get(id, byte[].class);
+        if (result == null) {
+            result = read(i);
+            ObjectCache.put(id, result, result.length);
+        }
+        return result;
+    }
+
+    /** Returns the bytes stored in the pack for the Ith object, copied out
+     *  of the mapping of the pack. */
+    private byte[] readStored(int i) {
+        ByteBuffer mapped = MappedFiles.map(packFile);
+        if (mapped != null) {
+            byte[] result = new byte[arrayLength(i)];
+            mapped.position((int) offsets[i] + headerSize);
+            mapped.get(result);
+            Trace.count(Trace.Counter.BYTES_READ, result.length);
+            return result;
+        }
+        // Packs too big to map as one buffer are read with a seek instead.
+        try (RandomAccessFile in = new RandomAccessFile(packFile, "r")) {
+            byte[] result = new byte[arrayLength(i)];
+            in.seek(offsets[i] + headerSize);
+            in.readFully(result);
+            Trace.count(Trace.Counter.BYTES_READ, result.length);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the stored length of the Ith object, which must fit in an
+     *  array; bigger objects can only be opened as a stream. */
+    private int arrayLength(int i) {
+        if (lengths[i] >= Integer.MAX_VALUE) {
+            throw error("Object %s is too big to read whole.", idAt(i));
+        }
+        return (int) lengths[i];
+    }
+
+    /** Returns the length of the Ith object in sorted order. */
+    long length(int i) {
+        return sizes[i];
+    }
+
+    /** Returns the contents of the Ith object in sorted order as a slice of
+     *  the mapping of the pack, or null if it is stored as a delta or the
+     *  pack is too big to map. */
+    ByteBuffer map(int i) {
+        if (bases[i] >= 0) {
+            return null;
+        }
+        ByteBuffer mapped = MappedFiles.map(packFile);
+        return mapped == null ? null : MappedFiles.slice(mapped, offsets[i] + headerSize, (int) lengths[i]);
+    }
+
+    /** Returns a stream over the contents of the Ith object in sorted order,
+     *  for objects too big to read whole. Deltas are small enough to have
+     *  been loaded whole, and so are read whole. */
+    InputStream open(int i) {
+        if (bases[i] >= 0) {
+            return new ByteArrayInputStream(read(i));
+        }
+        ByteBuffer mapped = map(i);
+        if (mapped != null) {
+            return new MappedFiles.BufferInputStream(mapped);
+        }
+        try {
+            FileChannel channel = FileChannel.open(packFile.toPath());
+            channel.position(offsets[i] + headerSize);
+            InputStream in = Channels.newInputStream(channel);
+            return new InputStream() {
+                private long remaining = lengths[i];
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    remaining -= 1;
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    int n = in.read(b, off, (int) Math.min(len, remaining));
+                    remaining -= Math.max(n, 0);
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the name shared by the files of this pack, "pack-ID". */
+    String name() {
+        String name = packFile.getName();
+        return name.substring(0, name.length() - ".pack".length());
+    }
+
+    /** Deletes the files of this pack. */
+    void delete() {
+        MappedFiles.clear();
+        join(packFile.getParentFile(), name() + ".idx").delete();
+        packFile.delete();
+    }
+
+    /** Writes the objects named in OBJECTS, a mapping of IDs to types, as a
+     *  new pack in DIR. Objects in DELTAS are stored as the given deltas,
+     *  whose bases must also be in OBJECTS; the contents of the others are
+     *  taken from SOURCE. Returns the index file of the new pack. */
+    static File write(File dir, SortedMap<String, ObjectType> objects,
+                      Map<String, Delta> deltas, ObjectSource source) {
+        int count = objects.size();
+        int[] fanout = new int[256];
+        List<Long> offsets = new ArrayList<>(count);
+        List<Long> lengths = new ArrayList<>(count);
+        List<Long> sizes = new ArrayList<>(count);
+        Map<String, Integer> positions = new HashMap<>();
+        for (String id : objects.keySet()) {
+            positions.put(id, positions.size());
+        }
+        String name = "pack-" + sha1(String.join("", objects.keySet()));
+        File tmpPack = join(dir, name + ".pack.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmpPack.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            long offset = 4 + 4 + 4;
+            byte[] buffer = new byte[Blob.BUFFER_SIZE];
+            for (Map.Entry<String, ObjectType> entry : objects.entrySet()) {
+                ObjectType type = entry.getValue();
+                String id = entry.getKey();
+                Delta delta = deltas.get(id);
+                long length = delta != null ? delta.bytes.length : source.size(type, id);
+                offsets.add(offset);
+                lengths.add(length);
+                if (delta != null) {
+                    sizes.add(Delta.resultLength(delta.bytes));
+                    out.writeByte(type.code | DELTA_FLAG);
+                    out.writeLong(length);
+                    out.write(delta.bytes);
+                } else {
+                    sizes.add(length);
+                    out.writeByte(type.code);
+                    out.writeLong(length);
+                    try (InputStream in = source.open(type, id)) {
+                        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                            out.write(buffer, 0, n);
+                        }
+                    }
+                }
+                offset += 1 + 8 + length;
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (int i = 1; i < fanout.length; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+        File tmpIdx = join(dir, name + ".idx.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmpIdx.toPath())))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (String id : objects.keySet()) {
+                out.write(hexToBytes(id));
+            }
+            for (ObjectType type : objects.values()) {
+                out.writeByte(type.code);
+            }
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (long length : lengths) {
+                out.writeLong(length);
+            }
+            for (long size : sizes) {
+                out.writeLong(size);
+            }
+            for (String id : objects.keySet()) {
+                Delta delta = deltas.get(id);
+                out.writeInt(delta == null ? -1 : positions.get(delta.baseID));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // Both files, and then their names, are on disk before this returns,
+        // as repack deletes the loose objects right after. The index is
+        // renamed last, so a pack is only visible once complete.
+        File packFile = join(dir, name + ".pack");
+        File idxFile = join(dir, name + ".idx");
+        Transaction.forceAll(List.of(tmpPack, tmpIdx));
+        install(tmpPack, packFile);
+        install(tmpIdx, idxFile);
+        Transaction.forceAll(List.of(idxFile));
+        return idxFile;
+    }
+
+    /** Renames TMP to TARGET, atomically where the file system allows. */
+    private static void install(File tmp, File target) {
+        try {
+            try {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw error("Could not write %s: %s", target.getPath(), excp.getMessage());
+        }
+    }
+
+    /** Supplies the contents of objects being written to a pack. */
+    interface ObjectSource {
+        /** Returns the length of the object of TYPE with ID. */
+        long size(ObjectType type, String id);
+
+        /** Returns a stream over the contents of the object of TYPE with ID. */
+        InputStream open(ObjectType type, String id);
+    }
+}
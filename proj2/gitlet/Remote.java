@@ -0,0 +1,559 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The transport between two gitlet repositories on this machine, used by
+ *  fetch, push and pull.
+ *
+ *  The local side starts "gitlet upload-pack" (to fetch) or "gitlet
+ *  receive-pack" (to push) in the working directory of the remote
+ *  repository, and talks to it over its standard input and output, so each
+ *  side reads and writes only its own repository, under its own lock. The
+ *  remote first lists its branches and their heads. The fetching or pushing
+ *  side then names the head it wants sent and the heads it has; the sender
+ *  walks its commit-graph down from the wanted head until it meets the
+ *  commits the receiver has, and sends the commits in between, with the
+ *  trees and blobs the receiver's commits do not already share, as one pack
+ *  stream: the commit IDs, parents first, then the pack's name, index and
+ *  contents. The receiver checks that every object of the pack hashes to its
+ *  ID and that the pack brings the head it is to move a branch to, then adds
+ *  the pack as it is and records the commits in its commit-graph and
+ *  indexes.
+ *
+ *  A fetch may also name a depth, and then only the commits fewer than
+ *  that many steps from the wanted head are sent. Received commits whose
+ *  parents the receiver still lacks, because of the depth or because the
+ *  sender is shallow itself, join its Shallow boundary.
+ *
+ *  Strings are sent as by DataOutput.writeUTF, files as their length and
+ *  bytes.
+ *  @author Boheng Mao
+ */
+class Remote implements AutoCloseable {
+    /** The folder holding the path of each remote, by name. */
+    static final File REMOTE_FOLDER = join(Repository.GITLET_DIR, "remotes");
+    /** Replies of receive-pack to a branch update. */
+    static final int ACCEPTED = 0;
+    static final int REJECTED = 1;
+    /** Names of pack files, which are all a sender may name. */
+    private static final String PACK_NAME = "pack-[0-9a-f]{" + UID_LENGTH + "}";
+
+    private final Process process;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private Remote(Process process) {
+        this.process = process;
+        this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    }
+
+    /** Returns the .gitlet folder of the remote NAME, or null if there is
+     *  no such remote. */
+    static File directory(String name) {
+        File file = join(REMOTE_FOLDER, name);
+        if (!Transaction.exists(file)) {
+            return null;
+        }
+        File dir = new File(Transaction.readString(file).replace("/", File.separator));
+        return dir.isAbsolute() ? dir : new File(Repository.CWD, dir.getPath());
+    }
+
+    /** Starts SERVICE in the repository whose .gitlet folder is GITLETDIR. */
+    private static Remote connect(File gitletDir, String service) {
+        List<String> command = List.of(
+                join(new File(System.getProperty("java.home")), "bin", "java").getPath(),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main", service);
+        try {
+            return new Remote(new ProcessBuilder(command)
+                    .directory(gitletDir.getAbsoluteFile().getParentFile())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Fetches BRANCH from the repository whose .gitlet folder is GITLETDIR,
+     *  and returns the ID of its head, or null if it has no such branch.
+     *  Unless DEPTH is 0, only the commits fewer than DEPTH steps from the
+     *  head are fetched. */
+    static String fetch(File gitletDir, String branch, int depth) {
+        try (Remote remote = connect(gitletDir, "upload-pack")) {
+            String want = remote.readRefs().get(branch);
+            if (want == null || ObjectStore.contains(ObjectType.COMMIT, want)) {
+                remote.out.writeUTF("");
+                remote.out.flush();
+                return want;
+            }
+            Set<String> haves = localHeads();
+            remote.out.writeUTF(want);
+            remote.out.writeInt(haves.size());
+            for (String have : haves) {
+                remote.out.writeUTF(have);
+            }
+            remote.out.writeInt(depth);
+            remote.out.flush();
+            readPack(remote.in).install(want);
+            if (remote.finish() != 0) {
+                throw error("The remote repository failed to send %s.", branch);
+            }
+            return want;
+        } catch (IOException excp) {
+            throw error("Lost the connection to the remote repository.");
+        }
+    }
+
+    /** Pushes the commit HEAD to BRANCH of the repository whose .gitlet
+     *  folder is GITLETDIR, creating the branch if needed. Returns false,
+     *  changing nothing, if the branch has commits HEAD does not descend
+     *  from. */
+    static boolean push(File gitletDir, String branch, String head) {
+        try (Remote remote = connect(gitletDir, "receive-pack")) {
+            Map<String, String> refs = remote.readRefs();
+            String old = refs.get(branch);
+            CommitGraph graph = CommitGraph.load();
+            if (old != null && (!ObjectStore.contains(ObjectType.COMMIT, old)
+                    || !old.equals(graph.mergeBase(old, head)))) {
+                remote.out.writeUTF("");
+                remote.out.flush();
+                return false;
+            }
+            List<String> haves = new ArrayList<>();
+            for (String id : refs.values()) {
+                if (ObjectStore.contains(ObjectType.COMMIT, id)) {
+                    haves.add(id);
+                }
+            }
+            remote.out.writeUTF(branch);
+            remote.out.writeUTF(old == null ? "" : old);
+            remote.out.writeUTF(head);
+            sendPack(remote.out, graph.missing(head, haves), Collections.emptySet());
+            remote.out.flush();
+            return remote.in.readInt() == ACCEPTED && remote.finish() == 0;
+        } catch (IOException excp) {
+            throw error("Lost the connection to the remote repository.");
+        }
+    }
+
+    /** Serves a fetch from the repository in the current directory, as
+     *  "gitlet upload-pack". */
+    static void uploadPack() {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)));
+        try {
+            writeRefs(out);
+            String want = in.readUTF();
+            if (want.isEmpty()) {
+                return;
+            }
+            List<String> common = new ArrayList<>();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String have = in.readUTF();
+                if (ObjectStore.contains(ObjectType.COMMIT, have)) {
+                    common.add(have);
+                }
+            }
+            int depth = in.readInt();
+            CommitGraph graph = CommitGraph.load();
+            List<String> commits = graph.missing(want, common);
+            Set<String> cut = new HashSet<>();
+            if (depth > 0) {
+                Set<String> recent = graph.recent(List.of(want), depth);
+                for (String id : commits) {
+                    if (!recent.contains(id)) {
+                        cut.add(id);
+                    }
+                }
+                commits.removeAll(cut);
+            }
+            sendPack(out, commits, cut);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Serves a push to the repository in the current directory, as
+     *  "gitlet receive-pack". The branch is only moved if it still points
+     *  where the pusher saw it. Moving the current branch moves HEAD with
+     *  it; the working files of the remote are left alone. */
+    static void receivePack() {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)));
+        try {
+            writeRefs(out);
+            String branch = in.readUTF();
+            if (branch.isEmpty()) {
+                return;
+            }
+            String old = in.readUTF();
+            String head = in.readUTF();
+            ReceivedPack pack = readPack(in);
+            File file = join(Repository.BRANCH_FOLDER, branch);
+            String current = Transaction.exists(file) ? Branch.getFromFile(branch).commitID : "";
+            if (!current.equals(old)) {
+                pack.discard();
+                out.writeInt(REJECTED);
+                out.flush();
+                return;
+            }
+            pack.install(head);
+            new Branch(branch, Commit.getFromFile(head)).saveToFile();
+            if (branch.equals(Transaction.readString(Repository.BRANCH))) {
+                Transaction.write(Repository.HEAD, head);
+            }
+            out.writeInt(ACCEPTED);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the heads of the branches of this repository, remote-tracking
+     *  branches included, as the commits a fetch can stop at. */
+    private static Set<String> localHeads() {
+        Set<String> result = new HashSet<>();
+        result.add(Transaction.readString(Repository.HEAD));
+        for (String name : Branch.names()) {
+            result.add(Branch.getFromFile(name).commitID);
+        }
+        return result;
+    }
+
+    /** Sends the branches of this repository and their heads to OUT. */
+    private static void writeRefs(DataOutputStream out) throws IOException {
+        List<String> names = plainFilenamesIn(Repository.BRANCH_FOLDER);
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+            out.writeUTF(Branch.getFromFile(name).commitID);
+        }
+        out.flush();
+    }
+
+    /** Returns the branches of the remote and their heads. */
+    private Map<String, String> readRefs() throws IOException {
+        Map<String, String> result = new TreeMap<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            String name = in.readUTF();
+            result.put(name, in.readUTF());
+        }
+        return result;
+    }
+
+    /** Sends COMMITS, parents first, to OUT as one pack, with the trees and
+     *  blobs they need. The receiver has the parents of COMMITS that are
+     *  neither among them nor in CUT, the commits it lacks but is not sent,
+     *  so the objects of their trees are left out. */
+    private static void sendPack(DataOutputStream out, List<String> commits, Set<String> cut)
+            throws IOException {
+        out.writeInt(commits.size());
+        for (String id : commits) {
+            out.writeUTF(id);
+        }
+        if (commits.isEmpty()) {
+            return;
+        }
+        Set<String> sending = new HashSet<>(commits);
+        Shallow shallow = Shallow.load();
+        Map<String, ObjectType> shared = new HashMap<>();
+        for (String id : commits) {
+            for (String parent : shallow.parents(Commit.getFromFile(id))) {
+                if (!sending.contains(parent) && !cut.contains(parent)) {
+                    Tree.collect(Commit.getFromFile(parent).treeID(), Collections.emptySet(), shared);
+                }
+            }
+        }
+        SortedMap<String, ObjectType> objects = new TreeMap<>();
+        List<String> trees = new ArrayList<>();
+        for (String id : commits) {
+            String treeID = Commit.getFromFile(id).treeID();
+            objects.put(id, ObjectType.COMMIT);
+            trees.add(treeID);
+            Tree.collect(treeID, shared.keySet(), objects);
+        }
+        File dir = Files.createTempDirectory("gitlet-pack").toFile();
+        try {
+            File idxFile = ObjectStore.writePack(dir, objects, trees);
+            String name = idxFile.getName().substring(0, idxFile.getName().length() - ".idx".length());
+            out.writeUTF(name);
+            sendFile(out, idxFile);
+            sendFile(out, join(dir, name + ".pack"));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /** Sends the length and contents of FILE to OUT. */
+    private static void sendFile(DataOutputStream out, File file) throws IOException {
+        out.writeLong(file.length());
+        Files.copy(file.toPath(), out);
+    }
+
+    /** Reads a pack sent by sendPack from IN. */
+    private static ReceivedPack readPack(DataInputStream in) throws IOException {
+        List<String> commits = new ArrayList<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            commits.add(in.readUTF());
+        }
+        if (commits.isEmpty()) {
+            return new ReceivedPack(commits, null, null, null);
+        }
+        String name = in.readUTF();
+        if (!name.matches(PACK_NAME)) {
+            throw error("Bad pack name %s.", name);
+        }
+        File idxFile = ObjectStore.tempFile();
+        File packFile = ObjectStore.tempFile();
+        receiveFile(in, idxFile);
+        receiveFile(in, packFile);
+        return new ReceivedPack(commits, name, packFile, idxFile);
+    }
+
+    /** Copies a file sent by sendFile from IN to FILE. */
+    private static void receiveFile(DataInputStream in, File file) throws IOException {
+        long remaining = in.readLong();
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        try (OutputStream fileOut = Files.newOutputStream(file.toPath())) {
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw new IOException("Pack cut short.");
+                }
+                fileOut.write(buffer, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+
+    /** Waits for the remote side to exit, and returns its exit status. */
+    private int finish() throws IOException {
+        out.close();
+        try {
+            return process.waitFor();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted waiting for the remote repository.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        in.close();
+        try {
+            process.waitFor();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A pack received from another repository, not yet part of this one. */
+    private static class ReceivedPack {
+        /** The commits of the pack, parents first. */
+        private final List<String> commits;
+        private final String name;
+        private final File packFile;
+        private final File idxFile;
+
+        ReceivedPack(List<String> commits, String name, File packFile, File idxFile) {
+            this.commits = commits;
+            this.name = name;
+            this.packFile = packFile;
+            this.idxFile = idxFile;
+        }
+
+        /** Adds the pack to this repository, and its new commits to the
+         *  commit-graph, the changed-path filters and the indexes, once
+         *  verify accepts it with HEAD, the commit a branch is to be moved
+         *  to. Commits whose parents are still missing join the shallow
+         *  boundary. */
+        void install(String head) {
+            try {
+                verify(head);
+            } catch (RuntimeException excp) {
+                discard();
+                // Bases of deltas read from the pack may have been cached.
+                ObjectCache.clear();
+                throw excp;
+            }
+            if (name == null) {
+                return;
+            }
+            List<String> fresh = new ArrayList<>();
+            for (String id : commits) {
+                if (!ObjectStore.contains(ObjectType.COMMIT, id)) {
+                    fresh.add(id);
+                }
+            }
+            ObjectStore.addPack(name, packFile, idxFile);
+            List<String> boundary = new ArrayList<>();
+            for (String id : fresh) {
+                for (String parent : Commit.getFromFile(id).parentList) {
+                    if (!ObjectStore.contains(ObjectType.COMMIT, parent)) {
+                        boundary.add(id);
+                        break;
+                    }
+                }
+            }
+            Shallow.load().addAll(boundary);
+            CommitGraph graph = CommitGraph.load();
+            List<Commit> added = new ArrayList<>();
+            for (String id : fresh) {
+                Commit commit = Commit.getFromFile(id);
+                graph.add(commit);
+                added.add(commit);
+            }
+            ChangedPaths.record(added);
+            CommitIndex.addAll(added);
+            MessageIndex.update();
+            CommitIdIndex.update();
+        }
+
+        /** Checks the pack before it becomes part of this repository: every
+         *  commit and tree must hash to its ID, and every blob to its ID under
+         *  each name a tree of the pack gives it. The objects the pack's
+         *  commits and trees refer to must be in the pack or in this
+         *  repository, tree entries must be plain names, and HEAD must be
+         *  among the sent commits or already here. Throws a GitletException
+         *  naming the first problem found. */
+        private void verify(String head) {
+            if (!commits.contains(head) && !ObjectStore.contains(ObjectType.COMMIT, head)) {
+                throw error("The remote repository did not send commit %s.", head);
+            }
+            if (name == null) {
+                if (!commits.isEmpty()) {
+                    throw error("The remote repository sent commits without a pack.");
+                }
+                return;
+            }
+            PackFile pack = PackFile.open(idxFile, packFile);
+            Map<String, ObjectType> objects = new HashMap<>();
+            for (int i = 0; i < pack.size(); i += 1) {
+                objects.put(pack.idAt(i), pack.typeAt(i));
+            }
+            Map<String, ObjectType> referenced = new HashMap<>();
+            Map<String, Set<String>> blobNames = new HashMap<>();
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.idAt(i);
+                try {
+                    if (pack.typeAt(i) == ObjectType.COMMIT) {
+                        byte[] bytes = pack.read(i);
+                        // Never deserialize what another process sent.
+                        Commit commit = Codec.isSerialized(bytes) ? null : Commit.decode(bytes);
+                        if (commit == null || !commit.hasValidID()) {
+                            throw error("Received commit %s does not match its ID.", id);
+                        }
+                        referenced.put(commit.treeID(), ObjectType.TREE);
+                    } else if (pack.typeAt(i) == ObjectType.TREE) {
+                        Tree tree = Tree.decode(pack.read(i));
+                        if (!tree.id.equals(id)) {
+                            throw error("Received tree %s does not match its ID.", id);
+                        }
+                        for (Map.Entry<String, Tree.Entry> entry : tree.entries().entrySet()) {
+                            String entryName = entry.getKey();
+                            if (entryName.isEmpty() || entryName.equals(".") || entryName.equals("..")
+                                    || entryName.contains("/") || entryName.contains(File.separator)) {
+                                throw error("Received tree %s has a bad entry name.", id);
+                            }
+                            referenced.put(entry.getValue().id, entry.getValue().type);
+                            if (!entry.getValue().isTree()) {
+                                blobNames.computeIfAbsent(entry.getValue().id,
+                                        k -> new HashSet<>()).add(entryName);
+                            }
+                        }
+                    } else if (!blobNames.containsKey(id)) {
+                        // Filled in once all trees are read.
+                        blobNames.put(id, new HashSet<>());
+                    }
+                } catch (GitletException excp) {
+                    throw excp;
+                } catch (RuntimeException excp) {
+                    throw error("Received object %s is corrupt.", id);
+                }
+            }
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (pack.typeAt(i) == ObjectType.BLOB) {
+                    checkBlob(pack, i, blobNames.get(pack.idAt(i)));
+                }
+            }
+            for (Map.Entry<String, ObjectType> entry : referenced.entrySet()) {
+                if (objects.get(entry.getKey()) != entry.getValue()
+                        && !ObjectStore.contains(entry.getValue(), entry.getKey())) {
+                    throw error("The remote repository did not send object %s.", entry.getKey());
+                }
+            }
+            for (String id : commits) {
+                if (objects.get(id) != ObjectType.COMMIT
+                        && !ObjectStore.contains(ObjectType.COMMIT, id)) {
+                    throw error("The remote repository did not send commit %s.", id);
+                }
+            }
+        }
+
+        /** Checks that the Ith object of PACK, a blob, hashes to its ID
+         *  under each of NAMES, the names trees of the pack give it. A blob
+         *  no tree of the pack names cannot be checked, and is refused. */
+        private static void checkBlob(PackFile pack, int i, Set<String> names) {
+            String id = pack.idAt(i);
+            if (names.isEmpty()) {
+                throw error("Received blob %s is not in any received tree.", id);
+            }
+            for (String blobName : names) {
+                try (InputStream in = pack.open(i)) {
+                    MessageDigest md = MessageDigest.getInstance("SHA-1");
+                    byte[] buffer = new byte[Blob.BUFFER_SIZE];
+                    for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                        md.update(buffer, 0, n);
+                    }
+                    md.update(blobName.getBytes(StandardCharsets.UTF_8));
+                    byte[] digest = md.digest();
+                    if (!bytesToHex(digest, 0, digest.length).equals(id)) {
+                        throw error("Received blob %s does not match its ID.", id);
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                } catch (NoSuchAlgorithmException excp) {
+                    throw new IllegalArgumentException("System does not support SHA-1");
+                }
+            }
+        }
+
+        /** Deletes the received files. */
+        void discard() {
+            if (name != null) {
+                packFile.delete();
+                idxFile.delete();
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package gitlet;
 
 import java.io.File;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -15,14 +14,27 @@ import static gitlet.Utils.*;
  *      -objects/
  *          -commits/ -- folder containing persisted data for commits
  *          -blobs/ -- folder containing persisted data for blobs.
+ *          -trees/ -- one tree per directory of a commit, shared between commits.
+ *          -packs/ -- pack files that loose commits and blobs are folded into by gc.
+ *          -info/
+ *              -commit-graph -- parents and generation numbers of all commits
+ *              -changed-paths -- Bloom filters of the paths each commit changes
+ *              -commit-index -- IDs, parents and times of all commits, in the order made
+ *              -commit-messages -- the messages of all commits, back to back
+ *              -message-index -- the commits containing each token of the messages
+ *              -commit-ids -- sorted commit IDs with a fan-out table, to resolve short IDs
  *      -branches/
  *          -master -- file for the master branch
  *          -other -- file for other branches
  *      -HEAD -- file tracking the HEAD pointer
  *      -BRANCH -- file tracking the current branch
+ *      -config -- settings of the repository, such as the compression of objects
+ *      -lock -- locked by gitlet processes, and marked while the repository changes
+ *      -journal -- redo journal of the updates to HEAD, BRANCH, branches and stages
  *      -Stages/
  *          -addStage -- file containing the files in addStage area
  *          -removeStage -- file containing the files in removeStage area
+ *          -index -- stat data and blob IDs of working files, to skip rehashing them
  *
  *  @author Boheng Mao
  */
@@ -50,6 +62,9 @@ public class Repository {
     public static final File OBJECT_DIR = join(GITLET_DIR, "objects");
     public static final File BLOB_FOLDER = join(OBJECT_DIR, "blobs");
     public static final File COMMIT_FOLDER = join(OBJECT_DIR, "commits");
+    public static final File TREE_FOLDER = join(OBJECT_DIR, "trees");
+    public static final File PACK_FOLDER = join(OBJECT_DIR, "packs");
+    public static final File INFO_FOLDER = join(OBJECT_DIR, "info");
 
     /**
      * Setting up the branch directory.
@@ -65,12 +80,21 @@ public class Repository {
      */
     public static final File HEAD = join(GITLET_DIR, "HEAD");
     public static final File BRANCH = join(GITLET_DIR, "BRANCH");
+    /**
+     * The config file, holding the settings of the repository.
+     */
+    public static final File CONFIG = join(GITLET_DIR, "config");
+    /** Unchanged lines shown around each change by diff. */
+    private static final int DIFF_CONTEXT = 3;
 
     public static void setupPersistence() {
         GITLET_DIR.mkdir();
         OBJECT_DIR.mkdir();
         BLOB_FOLDER.mkdir();
         COMMIT_FOLDER.mkdir();
+        TREE_FOLDER.mkdir();
+        PACK_FOLDER.mkdir();
+        INFO_FOLDER.mkdir();
         BRANCH_FOLDER.mkdir();
         STAGE_FOLDER.mkdir();
     }
@@ -78,9 +102,10 @@ public class Repository {
     public static void initCommand() {
         if (GITLET_DIR.exists()) {
             System.out.println("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            endCommand();
         }
         setupPersistence();
+        Config.writeDefault();
         // Set up initial Commit and safe it.
         Commit initialCommit = new Commit();
         initialCommit.saveToFile();
@@ -88,8 +113,8 @@ public class Repository {
         Branch initialBranch = new Branch(initialCommit);
         initialBranch.saveToFile();
         // Fill in the HEAD and BRANCH files with current HEAD pointer and BRANCH.
-        writeContents(HEAD, initialCommit.id);
-        writeContents(BRANCH, initialBranch.branchName);
+        Transaction.write(HEAD, initialCommit.id);
+        Transaction.write(BRANCH, initialBranch.branchName);
         // Set up the two Stages and safe them.
         Stage addStage = new Stage("addStage");
         Stage removeStage = new Stage("removeStage");
@@ -97,30 +122,49 @@ public class Repository {
         removeStage.saveToFile();
     }
 
-    /** filename is in the form of "example.txt" for instance. */
+    /** filename is in the form of "example.txt" for instance, or "." to add
+     *  every file in CWD and its subdirectories. */
     public static void addCommand(String filename) {
         checkGitletDir();
-        File file = join(CWD, filename); // form the file paths from CWD for that file by joining.
-        checkFileExists(file);
-        Blob b = new Blob(file);
+        List<File> files = new ArrayList<>();
+        if (filename.equals(".")) {
+            files.addAll(workingFiles());
+        } else {
+            File file = join(CWD, filename); // form the file paths from CWD for that file by joining.
+            checkFileExists(file);
+            files.add(file);
+        }
+        // Hash and store the files in parallel, only reading files whose stat data changed.
+        Trace.phase("hash");
+        Index index = Index.getFromFile();
+        Map<String, String> blobIDs = WorkingTreeScanner.scan(files, index, true);
+        index.saveToFile();
+        Trace.phase("stage");
         Stage addStage = Stage.getFromFile("addStage");
         Stage removeStage = Stage.getFromFile("removeStage");
+        Commit currentCommit = Commit.getFromFile(Transaction.readString(HEAD));
+        for (File file : files) {
+            Blob b = Blob.getFromFIle(blobIDs.get(file.getPath()));
+            addFileToStage(file, b, currentCommit, addStage, removeStage);
+        }
+        addStage.saveToFile();
+        removeStage.saveToFile();
+    }
+
+    /** Stages FILE, whose current contents are B, in ADDSTAGE and REMOVESTAGE. */
+    private static void addFileToStage(File file, Blob b, Commit currentCommit,
+                                       Stage addStage, Stage removeStage) {
         // if file's content is same as the content in the current commit, don't put to addStage.
-        if (checkSameFile(file, b)) {
+        if (checkSameFile(file, b, currentCommit)) {
             addStage.stageBlobMap.remove(file.getPath());
-            addStage.saveToFile();
         }
         // if file is in remove stage, delete file from removeStage and put it to addStage.
         if (removeStage.stageBlobMap.containsKey(file.getPath())) {
             removeStage.stageBlobMap.remove(file.getPath());
-            removeStage.saveToFile();
-            b.saveToFile();
         }
         // Else, add the file to the addStage.
-        if (!checkSameFile(file, b) && !removeStage.stageBlobMap.containsKey(file.getPath())) {
+        if (!checkSameFile(file, b, currentCommit) && !removeStage.stageBlobMap.containsKey(file.getPath())) {
             addStage.stageBlobMap.put(file.getPath(), b.id);
-            addStage.saveToFile();
-            b.saveToFile();
         }
     }
 
@@ -136,19 +180,18 @@ public class Repository {
         }
         // if file is in current commit, put it in remove stage and delete it from CWD.
         else if (checkFileInCurrentCommit(file)) {
-            String currentCommitID = readContentsAsString(HEAD);
+            String currentCommitID = Transaction.readString(HEAD);
             Commit currentCommit = Commit.getFromFile(currentCommitID);
-            String blobID = currentCommit.blobProjection.get(file.getPath());
+            String blobID = currentCommit.blobID(file.getPath());
             Blob b = Blob.getFromFIle(blobID);
             removeStage.stageBlobMap.put(file.getPath(), b.id);
             removeStage.saveToFile();
-            if (file.exists()) {
-                restrictedDelete(filename);
-            }
+            // The file may be in a subdirectory, which restrictedDelete refuses.
+            file.delete();
         }
         else {
             System.out.println("No reason to remove the file.");
-            System.exit(0);
+            endCommand();
         }
     }
 
@@ -161,129 +204,242 @@ public class Repository {
         // Check for failure cases
         if (addStage.stageBlobMap.isEmpty() && removeStage.stageBlobMap.isEmpty()) {
             System.out.println("No changes added to the commit.");
-            System.exit(0);
+            endCommand();
         }
         if (Objects.equals(message, "")) {
             System.out.println("Please enter a commit message.");
-            System.exit(0);
+            endCommand();
         }
         // Get the current commit.
-        String currentCommitID = readContentsAsString(HEAD);
+        String currentCommitID = Transaction.readString(HEAD);
         Commit currentCommit = Commit.getFromFile(currentCommitID);
         // Set up and update the new commit.
+        Trace.phase("tree");
         Commit newCommit = new Commit(message, currentCommit);
-        addUpdate(newCommit, addStage);
-        removeUpdate(newCommit, removeStage);
+        stageUpdate(newCommit, addStage, removeStage);
         newCommit.id = newCommit.createID();
+        Trace.phase("save");
         newCommit.saveToFile();
         // Change the HEAD pointer
-        createNewFile(HEAD);
-        writeContents(HEAD, newCommit.id);
+        Transaction.write(HEAD, newCommit.id);
+        Trace.phase("stages");
         // Clear the Stages and safe the changes
         addStage.stageBlobMap.clear();
         removeStage.stageBlobMap.clear();
         addStage.saveToFile();
         removeStage.saveToFile();
         // Update the branch and safe the changes.
-        Branch currentBranch = Branch.getFromFile(readContentsAsString(BRANCH));
+        Branch currentBranch = Branch.getFromFile(Transaction.readString(BRANCH));
         currentBranch.commitID = newCommit.id;
         currentBranch.saveToFile();
     }
 
-    /** Updates the blobProjection in the new commit for files in addStage. */
-    private static void addUpdate(Commit newCommit, Stage addStage) {
-        // Loop through the addStage's mapping.
-        // First case: if file is not included in current commit, add it in.
-        for (String filepath : addStage.stageBlobMap.keySet()) {
-            if (!(newCommit.blobProjection.containsKey(filepath))) {
-                String blobID = addStage.stageBlobMap.get(filepath);
-                newCommit.blobProjection.put(filepath, blobID);
-            }
-            // Second case: if file is included in the current commit, update its blob.
-            for (String commitPath : newCommit.blobProjection.keySet()) {
-                if (Objects.equals(commitPath, filepath)) {
-                    String blobID = addStage.stageBlobMap.get(filepath);
-                    newCommit.blobProjection.put(commitPath, blobID);
-                }
-            }
+    /** Updates the tree of the new commit for the files in addStage and
+     *  removeStage. Only the trees on the way to staged files are rewritten. */
+    private static void stageUpdate(Commit newCommit, Stage addStage, Stage removeStage) {
+        SortedMap<String, String> changes = new TreeMap<>(addStage.stageBlobMap);
+        for (String removePath : removeStage.stageBlobMap.keySet()) {
+            changes.put(removePath, null);
         }
+        newCommit.updateTree(changes);
     }
 
-    /** Updates the blobProjection in the new commit for files in removeStage. */
-    private static void removeUpdate(Commit newCommit, Stage removeStage) {
-        List<String> toRemove = new ArrayList<>();
-        for (String removePath : removeStage.stageBlobMap.keySet()) {
-            for (String commitPath : newCommit.blobProjection.keySet()) {
-                if (Objects.equals(removePath, commitPath)) {
-                    toRemove.add(removePath);
-                }
+    /** Prints the first-parent history of the head commit, skipping the
+     *  first SKIP commits and printing at most MAXCOUNT, or all if MAXCOUNT
+     *  is negative. Commits are read from the commit index one at a time.
+     *  Unless PATH is null, only the commits that change the file or
+     *  directory at PATH from their first parent are printed and counted.
+     *  In a shallow repository the log ends at the shallow boundary. */
+    public static void logCommand(String path, int skip, int maxCount) {
+        checkGitletDir();
+        String commitID = Transaction.readString(HEAD);
+        Shallow shallow = Shallow.load();
+        ChangedPaths filters = null;
+        if (path != null) {
+            path = join(CWD, path).toPath().normalize().toString();
+            if (path.equals(CWD.getPath())) {
+                path = null;
+            } else if (!path.startsWith(CWD.getPath() + File.separator)) {
+                System.out.println("File is outside the repository.");
+                endCommand();
+            } else {
+                filters = ChangedPaths.load();
             }
         }
-        for (String removePath : toRemove) {
-            newCommit.blobProjection.remove(removePath);
+        try (CommitIndex index = CommitIndex.open()) {
+            for (int printed = 0; maxCount < 0 || printed < maxCount; ) {
+                CommitIndex.Record record = index.find(commitID);
+                boolean boundary = shallow.contains(record.id);
+                if (path == null || changesPath(filters, record, boundary, path)) {
+                    if (skip > 0) {
+                        skip -= 1;
+                    } else {
+                        printRecord(index, record);
+                        printed += 1;
+                    }
+                }
+                if (record.parents.isEmpty() || boundary) {
+                    break;
+                }
+                commitID = record.parents.get(0);
+            }
         }
     }
 
-    public static void logCommand() {
-        checkGitletDir();
-        String currentCommitID = readContentsAsString(HEAD);
-        Commit currentCommit = Commit.getFromFile(currentCommitID);
-        while (!currentCommit.parentList.isEmpty()) {
-            currentCommit.printCommit();
-            String parentString = currentCommit.parentList.get(0);
-            Commit parentCommit = Commit.getFromFile(parentString);
-            currentCommit = parentCommit;
-        }
-        currentCommit.printCommit();
+    /** Returns true if the commit of RECORD changes the file or directory
+     *  at the absolute PATH from its first parent, or has PATH at all if it
+     *  is on the shallow BOUNDARY. Commits whose changed-path filter rules
+     *  PATH out are passed over without being read; the others are checked
+     *  by looking PATH up in their trees and their parents'. */
+    private static boolean changesPath(ChangedPaths filters, CommitIndex.Record record,
+                                       boolean boundary, String path) {
+        if (!filters.mayChange(record.id, path)) {
+            return false;
+        }
+        String parentTree = record.parents.isEmpty() || boundary ? null
+                : Commit.getFromFile(record.parents.get(0)).treeID();
+        String tree = Commit.getFromFile(record.id).treeID();
+        return !Objects.equals(Tree.entryID(parentTree, path), Tree.entryID(tree, path));
     }
 
-    public static void globalLogCommand() {
+    /** Prints every commit ever made, newest first, with the same paging as
+     *  logCommand. */
+    public static void globalLogCommand(int skip, int maxCount) {
         checkGitletDir();
-        List<String> commitList = plainFilenamesIn(COMMIT_FOLDER);
-        assert commitList != null;
-        for (String commitID : commitList) {
-            Commit currentCommit = Commit.getFromFile(commitID);
-            currentCommit.printCommit();
+        try (CommitIndex index = CommitIndex.open()) {
+            int end = maxCount < 0 ? -1 : Math.max(-1, index.size() - 1 - skip - maxCount);
+            for (int i = index.size() - 1 - skip; i > end; i -= 1) {
+                printRecord(index, index.read(i));
+            }
         }
     }
 
-    public static void findCommand(String commitMessage) {
+    private static void printRecord(CommitIndex index, CommitIndex.Record record) {
+        Commit.printCommit(record.id, record.parents, record.timeStamp(), index.message(record));
+    }
+
+    /** Prints the IDs of the commits with COMMITMESSAGE, oldest first,
+     *  skipping the first SKIP matches and printing at most MAXCOUNT, or all
+     *  if MAXCOUNT is negative. With MODE "--token" the commits whose
+     *  messages contain every word of COMMITMESSAGE are printed instead, and
+     *  with "--prefix" those with a word starting with each of them. */
+    public static void findCommand(String commitMessage, String mode, int skip, int maxCount) {
         checkGitletDir();
-        List<String> commitList = plainFilenamesIn(COMMIT_FOLDER);
-        boolean found = false;
-        assert commitList != null;
-        for (String commitID : commitList) {
-            Commit currentCommit = Commit.getFromFile(commitID);
-            if (Objects.equals(currentCommit.message, commitMessage)) {
-                System.out.println(currentCommit.id);
-                found = true;
+        List<Integer> matches;
+        try (CommitIndex index = CommitIndex.open()) {
+            if (mode == null) {
+                matches = MessageIndex.exact(index, commitMessage);
+            } else {
+                matches = MessageIndex.search(index, commitMessage, mode.equals("--prefix"));
+            }
+            int end = maxCount < 0 ? matches.size() : Math.min(matches.size(), skip + maxCount);
+            for (int i = skip; i < end; i += 1) {
+                System.out.println(index.idAt(matches.get(i)));
             }
         }
-        if (!found) {
+        if (matches.isEmpty()) {
             System.out.println("Found no commit with that message.");
-            System.exit(0);
+            endCommand();
         }
     }
 
     public static void statusCommand() {
         checkGitletDir();
+        Trace.phase("branches");
         printBranch();
+        Trace.phase("staged");
         printStageFiles();
+        Trace.phase("removed");
         printRemovedFiles();
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        System.out.println();
-        System.out.println("=== Untracked Files ===");
-        System.out.println();
-        //printModificationsNotStaged();
-        //printUntrackedFiles();
+        Trace.phase("modified");
+        Index index = Index.getFromFile();
+        printModificationsNotStaged(index);
+        Trace.phase("untracked");
+        printUntrackedFiles();
+        index.saveToFile();
+    }
+
+    /** Prints the differences between commits FROM and TO in unified
+     *  format. FROM defaults to the head commit, and TO to the working
+     *  directory, where the files tracked by FROM or staged for addition
+     *  are compared. Files are first compared by blob ID, so unchanged files
+     *  are never read; working files are hashed through the index. */
+    public static void diffCommand(String from, String to) {
+        checkGitletDir();
+        Commit fromCommit = Commit.getFromFile(from == null
+                ? Transaction.readString(HEAD) : resolveCommitID(from));
+        Map<String, String> fromIDs;
+        Map<String, String> toIDs;
+        Commit toCommit = null;
+        if (to != null) {
+            toCommit = Commit.getFromFile(resolveCommitID(to));
+            toIDs = Tree.diff(fromCommit.treeID(), toCommit.treeID());
+            fromIDs = new TreeMap<>();
+            for (String path : toIDs.keySet()) {
+                fromIDs.put(path, fromCommit.blobID(path));
+            }
+        } else {
+            fromIDs = fromCommit.blobProjection();
+            Set<String> pathSet = new TreeSet<>(fromIDs.keySet());
+            pathSet.addAll(Stage.getFromFile("addStage").stageBlobMap.keySet());
+            List<File> files = new ArrayList<>();
+            for (String path : pathSet) {
+                File file = new File(path);
+                if (file.isFile()) {
+                    files.add(file);
+                }
+            }
+            Index index = Index.getFromFile();
+            toIDs = new TreeMap<>(WorkingTreeScanner.scan(files, index, false));
+            index.saveToFile();
+            for (String path : pathSet) {
+                toIDs.putIfAbsent(path, null);
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> entry : toIDs.entrySet()) {
+            String path = entry.getKey();
+            String fromID = fromIDs.get(path);
+            String toID = entry.getValue();
+            if (Objects.equals(fromID, toID)) {
+                continue;
+            }
+            byte[] fromContents = fromID == null ? new byte[0] : Blob.getFromFIle(fromID).readContents();
+            byte[] toContents = toID == null ? new byte[0]
+                    : toCommit != null ? Blob.getFromFIle(toID).readContents()
+                    : readContents(new File(path));
+            printFileDiff(relativePath(path),
+                    fromID != null, fromContents, toID != null, toContents, out);
+        }
+        System.out.print(out);
+    }
+
+    /** Appends the unified diff of the file NAME, from FROMCONTENTS to
+     *  TOCONTENTS, to OUT. A side that does not exist, as FROMEXISTS or
+     *  TOEXISTS tell, is /dev/null. */
+    private static void printFileDiff(String name, boolean fromExists, byte[] fromContents,
+                                      boolean toExists, byte[] toContents, StringBuilder out) {
+        String fromName = fromExists ? "a/" + name : "/dev/null";
+        String toName = toExists ? "b/" + name : "/dev/null";
+        String fromText = Diff.text(fromContents);
+        String toText = Diff.text(toContents);
+        out.append("diff --gitlet a/").append(name).append(" b/").append(name).append("\n");
+        if (fromText == null || toText == null) {
+            out.append("Binary files ").append(fromName).append(" and ").append(toName)
+                    .append(" differ\n");
+            return;
+        }
+        out.append("--- ").append(fromName).append("\n");
+        out.append("+++ ").append(toName).append("\n");
+        List<String> fromLines = Diff.lines(fromText);
+        List<String> toLines = Diff.lines(toText);
+        Diff.unified(fromLines, toLines, Diff.diff(fromLines, toLines), DIFF_CONTEXT, out);
     }
 
     public static void printBranch() {
         System.out.println("=== Branches ===");
-        String currentBranchName = readContentsAsString(BRANCH);
-        List<String> branchList = plainFilenamesIn(BRANCH_FOLDER);
-        assert branchList != null;
-        for (String branchName : branchList) {
+        String currentBranchName = Transaction.readString(BRANCH);
+        for (String branchName : Branch.names()) {
             if (Objects.equals(branchName, currentBranchName)) {
                 System.out.println("*" + branchName);
             } else {
@@ -297,8 +453,7 @@ public class Repository {
         System.out.println("=== Staged Files ===");
         Stage addStage = Stage.getFromFile("addStage");
         for (String filename : addStage.stageBlobMap.keySet()) {
-            File file = new File(filename);
-            System.out.println(file.getName()); // KeySet obtained from TreeMap is in lexicographic order.
+            System.out.println(relativePath(filename)); // KeySet obtained from TreeMap is in lexicographic order.
         }
         System.out.println();
     }
@@ -307,84 +462,118 @@ public class Repository {
         System.out.println("=== Removed Files ===");
         Stage removeStage = Stage.getFromFile("removeStage");
         for (String filename : removeStage.stageBlobMap.keySet()) {
-            File file = new File(filename);
-            System.out.println(file.getName());
+            System.out.println(relativePath(filename));
         }
         System.out.println();
     }
 
-    /** Check if a file in CWD is “modified but not staged”. */
-    public static boolean modificationsNotStaged(File file) {
-        boolean flag = false;
-        Blob b = new Blob(file);
-        Stage addStage = Stage.getFromFile("addStage");
-        Stage removeStage = Stage.getFromFile("removeStage");
+    /** Check if a file in CWD is “modified but not staged”, given the ID BLOBID
+     *  of its current contents, or null if it was deleted. Returns "modified" or
+     *  "deleted" if it is, and null otherwise. */
+    public static String modificationsNotStaged(File file, String blobID, Commit currentCommit,
+                                                Stage addStage, Stage removeStage) {
+        String path = file.getPath();
         //Case 1:Tracked in the current commit, changed in the working directory, but not staged.
-        if (checkSameFile(file, b) &&
-                !addStage.stageBlobMap.containsKey(file.getPath())) {
-            flag = true;
+        String committedID = currentCommit.blobID(path);
+        if (blobID != null && committedID != null
+                && !addStage.stageBlobMap.containsKey(path)
+                && !removeStage.stageBlobMap.containsKey(path)
+                && !Objects.equals(committedID, blobID)) {
+            return "modified";
         }
         //Case 2:Staged for addition, but with different contents than in the working directory.
-        else if (addStage.stageBlobMap.containsKey(file.getPath()) &&
-                !Objects.equals(addStage.stageBlobMap.get(file.getPath()), b.id)) {
-            flag = true;
+        else if (blobID != null && addStage.stageBlobMap.containsKey(path)
+                && !Objects.equals(addStage.stageBlobMap.get(path), blobID)) {
+            return "modified";
         }
         //Case 3:Staged for addition, but deleted in the working directory.
-        else if (addStage.stageBlobMap.containsKey(file.getPath()) &&
-                !file.exists()) {
-            flag = true;
+        else if (blobID == null && addStage.stageBlobMap.containsKey(path)) {
+            return "deleted";
         }
         //Case 4:Not staged for removal, but tracked in the current commit and deleted from the working directory.
-        else if (!removeStage.stageBlobMap.containsKey(file.getPath()) &&
-                checkFileInCurrentCommit(file) && !file.exists()) {
-            flag = true;
+        else if (blobID == null && !removeStage.stageBlobMap.containsKey(path)
+                && committedID != null) {
+            return "deleted";
         }
-        return flag;
+        return null;
     }
 
-    public static void printModificationsNotStaged() {
+    /** Prints tracked or staged files that changed in CWD. Files are hashed in
+     *  parallel, and their blob IDs come from INDEX if they are unchanged. */
+    public static void printModificationsNotStaged(Index index) {
         System.out.println("=== Modifications Not Staged For Commit ===");
-        List<String> nameList = plainFilenamesIn(CWD);
-        assert nameList != null;
-        for (String filename : nameList) {
-            File file = join(CWD, filename);
-            if (modificationsNotStaged(file)) {
-                System.out.println(file.getName());
+        Commit currentCommit = Commit.getFromFile(Transaction.readString(HEAD));
+        Stage addStage = Stage.getFromFile("addStage");
+        Stage removeStage = Stage.getFromFile("removeStage");
+        // Deleted files are only found through the stage and the current commit.
+        Set<String> pathSet = new TreeSet<>(addStage.stageBlobMap.keySet());
+        pathSet.addAll(currentCommit.blobProjection().keySet());
+        for (File file : workingFiles()) {
+            pathSet.add(file.getPath());
+        }
+        List<File> files = new ArrayList<>();
+        for (String path : pathSet) {
+            File file = new File(path);
+            if (file.isFile()) {
+                files.add(file);
+            }
+        }
+        Map<String, String> blobIDs = WorkingTreeScanner.scan(files, index, false);
+        for (String path : pathSet) {
+            File file = new File(path);
+            String state = modificationsNotStaged(file, blobIDs.get(path), currentCommit, addStage, removeStage);
+            if (state != null) {
+                System.out.println(relativePath(path) + " (" + state + ")");
             }
         }
         System.out.println();
     }
 
-    public static boolean untrackedFiles(File file) {
-        Stage addStage = Stage.getFromFile("addStage");
-        if (!addStage.stageBlobMap.containsKey(file.getPath()) && !checkFileInCurrentCommit(file)) {
-            return true;
-        }
-        return false;
+    /** Checks if a file in CWD is neither staged for addition nor tracked, or
+     *  is staged for removal but was re-created. */
+    public static boolean untrackedFiles(File file, Commit currentCommit,
+                                         Stage addStage, Stage removeStage) {
+        String path = file.getPath();
+        return !addStage.stageBlobMap.containsKey(path)
+                && (currentCommit.blobID(path) == null
+                || removeStage.stageBlobMap.containsKey(path));
     }
 
     public static void printUntrackedFiles() {
         System.out.println("=== Untracked Files ===");
-        List<String> nameList = plainFilenamesIn(CWD);
-        assert nameList != null;
-        for (String filename : nameList) {
-            File file = join(CWD, filename);
-            if (untrackedFiles(file)) {
-                System.out.println(file.getName());
+        Commit currentCommit = Commit.getFromFile(Transaction.readString(HEAD));
+        Stage addStage = Stage.getFromFile("addStage");
+        Stage removeStage = Stage.getFromFile("removeStage");
+        for (File file : workingFiles()) {
+            if (untrackedFiles(file, currentCommit, addStage, removeStage)) {
+                System.out.println(relativePath(file.getPath()));
             }
         }
         System.out.println();
     }
 
+    /** Returns the plain files in CWD and its subdirectories, leaving out
+     *  .gitlet, in lexicographic order of their paths. Symbolic links to
+     *  directories are not followed. */
+    static List<File> workingFiles() {
+        return WorkingTreeScanner.walk(CWD, GITLET_DIR);
+    }
+
+    /** Returns PATH, the path of a file in the working directory, relative
+     *  to CWD. */
+    private static String relativePath(String path) {
+        return CWD.toPath().relativize(new File(path).toPath()).toString();
+    }
+
     public static void branchCommand(String branchName) {
         checkGitletDir();
-        String currentCommitID = readContentsAsString(HEAD);
+        String currentCommitID = Transaction.readString(HEAD);
         Commit currentCommit = Commit.getFromFile(currentCommitID);
         List<String> name = plainFilenamesIn(BRANCH_FOLDER);
         assert name != null;
         if (name.contains(branchName)) {
             System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            endCommand();
         }
         Branch newBranch = new Branch(branchName, currentCommit);
         newBranch.saveToFile();
@@ -393,26 +582,23 @@ public class Repository {
 
     public static void rmBranchCommand(String branchName) {
         checkGitletDir();
-        List<String> name = plainFilenamesIn(BRANCH_FOLDER);
-        assert name != null;
-        if (!name.contains(branchName)) {
+        if (!checkBranchExists(branchName)) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            endCommand();
         }
-        String currentBranchName = readContentsAsString(BRANCH);
+        String currentBranchName = Transaction.readString(BRANCH);
         if (currentBranchName.equals(branchName)) {
             System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            endCommand();
         }
         Branch branch = Branch.getFromFile(branchName);
         branch.commitID = null;
-        File branchFile = join(BRANCH_FOLDER, branchName);
-        branchFile.delete();
+        Transaction.delete(join(BRANCH_FOLDER, branchName));
     }
 
     public static void checkoutCommand1(String filename) {
         checkGitletDir();
-        String currentCommitID = readContentsAsString(HEAD);
+        String currentCommitID = Transaction.readString(HEAD);
         Commit currentCommit = Commit.getFromFile(currentCommitID);
         checkoutCommandHelper(filename, currentCommit);
     }
@@ -420,55 +606,53 @@ public class Repository {
     /** Checkout the file with given filename in the given commit. */
     private static void checkoutCommandHelper(String filename, Commit commit) {
         File file = join(CWD, filename);
-        if (!commit.blobProjection.containsKey(file.getPath())) {
+        String blobID = commit.blobID(file.getPath());
+        if (blobID == null) {
             System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            endCommand();
         }
-        String blobID = commit.blobProjection.get(file.getPath());
         Blob b = Blob.getFromFIle(blobID);
-        writeContents(file, (Object) b.byteContent);
+        b.writeTo(file);
     }
 
     public static void checkoutCommand2(String commitID, String filename) {
         checkGitletDir();
-        List<String> nameList = plainFilenamesIn(COMMIT_FOLDER);
-        assert nameList != null;
-        if (commitID.length() < 40) {
-            boolean exist = false;
-            for (String id : nameList) {
-                String idShort = id.substring(0, commitID.length());
-                if (idShort.equals(commitID)) {
-                    exist = true;
-                    Commit commit = Commit.getFromFile(id);
-                    checkoutCommandHelper(filename, commit);
-                    break;
-                }
-            }
-            if (!exist) {
-                System.out.println("No commit with that id exists.");
-                System.exit(0);
-            }
+        Commit commit = Commit.getFromFile(resolveCommitID(commitID));
+        checkoutCommandHelper(filename, commit);
+    }
+
+    /** Returns the full ID of the commit whose ID starts with PREFIX,
+     *  looked up in the sorted commit ID index. Exits with a message if no
+     *  commit or more than one commit matches. */
+    private static String resolveCommitID(String prefix) {
+        List<String> matches = CommitIdIndex.resolve(prefix);
+        if (matches.isEmpty() && prefix.length() == UID_LENGTH
+                && ObjectStore.contains(ObjectType.COMMIT, prefix)) {
+            // A commit written just before a crash may be missing from the
+            // indexes, but can still be named in full.
+            return prefix;
+        }
+        if (matches.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            endCommand();
         }
-        else {
-            if (!nameList.contains(commitID)) {
-                System.out.println("No commit with that id exists.");
-                System.exit(0);
-            }
-            Commit commit = Commit.getFromFile(commitID);
-            checkoutCommandHelper(filename, commit);
+        if (matches.size() > 1) {
+            System.out.println("Commit id " + prefix + " is ambiguous.");
+            endCommand();
         }
+        return matches.get(0);
     }
 
     public static void checkoutCommand3(String branchName) {
         checkGitletDir();
         if (!checkBranchExists(branchName)) {
             System.out.println("No such branch exists.");
-            System.exit(0);
+            endCommand();
         }
-        String currentBranchName = readContentsAsString(BRANCH);
+        String currentBranchName = Transaction.readString(BRANCH);
         if (currentBranchName.equals(branchName)) {
             System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            endCommand();
         }
         checkout3BranchHelper(branchName);
     }
@@ -477,28 +661,11 @@ public class Repository {
     private static void checkout3BranchHelper(String branchName) {
         Branch givenBranch = Branch.getFromFile(branchName);
         Commit head = Commit.getFromFile(givenBranch.commitID);
-        Branch currentBranch = Branch.getFromFile(readContentsAsString(BRANCH));
+        Branch currentBranch = Branch.getFromFile(Transaction.readString(BRANCH));
         Commit currentHead = Commit.getFromFile(currentBranch.commitID);
-        Set<String> filePathSet = head.blobProjection.keySet();
-        // Iterate over all files in head commit and puts them in CWD, overwriting if needed .
-        for (String filepath : filePathSet) {
-            File file = new File(filepath);
-            Blob b = Blob.getFromFIle(head.blobProjection.get(filepath));
-            if (file.exists() && untrackedFileInGivenCommit(file, currentHead)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
-            }
-            writeContents(file, (Object) b.byteContent);
-        }
-        // Any files that are tracked in the current branch
-        // but are not present in the checked-out branch are deleted.
-        Set<String> currentPathSet = currentHead.blobProjection.keySet();
-        for (String currentFilePath : currentPathSet) {
-            File file = new File(currentFilePath);
-            if (!untrackedFileInGivenCommit(file, currentHead) && untrackedFileInGivenCommit(file, head)) {
-                file.delete();
-            }
-        }
+        Trace.phase("working-tree");
+        checkoutCommit(currentHead, head, false);
+        Trace.phase("stages");
         // Clear Staging area.
         Stage addStage = Stage.getFromFile("addStage");
         Stage removeStage = Stage.getFromFile("removeStage");
@@ -507,57 +674,83 @@ public class Repository {
         addStage.saveToFile();
         removeStage.saveToFile();
         // Set new current Branch and current HEAD.
-        HEAD.delete();
-        createNewFile(HEAD);
-        writeContents(HEAD, head.id);
-        BRANCH.delete();
-        createNewFile(BRANCH);
-        writeContents(BRANCH, branchName);
+        Transaction.write(HEAD, head.id);
+        Transaction.write(BRANCH, branchName);
     }
 
 
-    /** Check if branch with name branchName exists. */
-    private static boolean checkBranchExists(String branchName) {
-        List<String> nameList = plainFilenamesIn(BRANCH_FOLDER);
-        assert nameList != null;
-        for (String name : nameList) {
-            if (Objects.equals(name, branchName)) {
-                return true;
+    /** Updates the working directory from CURRENTHEAD to TARGET. Only the
+     *  files that differ between their trees are written or deleted, and
+     *  subtrees the two commits share are not read at all. If HARD, files
+     *  of the shared subtrees that were modified or deleted in the working
+     *  directory are restored as well, as reset always did; files whose stat
+     *  data matches the index are not read for that. The files are written
+     *  in one parallel batch, once the whole set is known. Exits without
+     *  touching any file if an untracked file would be overwritten. */
+    private static void checkoutCommit(Commit currentHead, Commit target, boolean hard) {
+        Map<String, String> changes = Tree.diff(currentHead.treeID(), target.treeID());
+        Stage addStage = Stage.getFromFile("addStage");
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            File file = new File(change.getKey());
+            if (change.getValue() != null && file.exists()
+                    && untrackedFileInGivenCommit(file, currentHead, addStage)) {
+                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+                endCommand();
             }
         }
-        return false;
+        // Only a hard update reads the index, as it has to check every file;
+        // otherwise loading and saving it would cost more than it saves.
+        Index index = hard ? Index.getFromFile() : null;
+        Map<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            File file = new File(change.getKey());
+            if (change.getValue() != null) {
+                writes.put(change.getKey(), change.getValue());
+            } else if (!addStage.stageBlobMap.containsKey(change.getKey())) {
+                // Tracked in the current commit but not in the target.
+                file.delete();
+            }
+        }
+        if (hard) {
+            List<File> files = new ArrayList<>();
+            for (String path : target.blobProjection().keySet()) {
+                File file = new File(path);
+                if (!changes.containsKey(path) && file.isFile()) {
+                    files.add(file);
+                }
+            }
+            Map<String, String> blobIDs = WorkingTreeScanner.scan(files, index, false);
+            for (Map.Entry<String, String> entry : target.blobProjection().entrySet()) {
+                if (!changes.containsKey(entry.getKey())
+                        && !entry.getValue().equals(blobIDs.get(entry.getKey()))) {
+                    writes.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        WorkingTreeWriter.write(writes, index);
+        if (index != null) {
+            index.saveToFile();
+        }
+    }
+
+    /** Check if branch with name branchName exists. Remote-tracking
+     *  branches such as origin/master live in folders of BRANCH_FOLDER, and
+     *  a branch fetched by pull is only written when the command ends. */
+    private static boolean checkBranchExists(String branchName) {
+        return Transaction.exists(join(BRANCH_FOLDER, branchName));
     }
 
     public static void resetCommand(String commitID) {
-        List<String> nameList = plainFilenamesIn(COMMIT_FOLDER);
-        Branch currentBranch = Branch.getFromFile(readContentsAsString(BRANCH));
+        checkGitletDir();
+        commitID = resolveCommitID(commitID);
+        Branch currentBranch = Branch.getFromFile(Transaction.readString(BRANCH));
         Commit currentHead = Commit.getFromFile(currentBranch.commitID);
-        assert nameList != null;
-        if (!nameList.contains(commitID)) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
-        }
         Commit commit = Commit.getFromFile(commitID);
-        Set<String> pathSet = commit.blobProjection.keySet();
-        for (String path : pathSet) {
-            File file = new File(path);
-            if (file.exists() && untrackedFileInGivenCommit(file, currentHead)) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
-            }
-            checkoutCommandHelper(file.getName(), commit);
-        }
-        Set<String> currentPathSet = currentHead.blobProjection.keySet();
-        for (String currentFilePath : currentPathSet) {
-            File file = new File(currentFilePath);
-            if (!untrackedFileInGivenCommit(file, currentHead) && untrackedFileInGivenCommit(file, commit)) {
-                file.delete();
-            }
-        }
+        Trace.phase("working-tree");
+        checkoutCommit(currentHead, commit, true);
+        Trace.phase("stages");
         // Change the HEAD pointer.
-        HEAD.delete();
-        createNewFile(HEAD);
-        writeContents(HEAD, commitID);
+        Transaction.write(HEAD, commitID);
         // Change the current BRANCH to point to commit with commitID.
         currentBranch.commitID = commit.id;
         currentBranch.saveToFile();
@@ -578,84 +771,59 @@ public class Repository {
         filePresentForStage();
         if (!checkBranchExists(branchName)) {
             System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            endCommand();
         }
         mergeWithItself(branchName);
-        easyMerge(branchName);
         // Get the three commits
+        Trace.phase("split-point");
         Commit splitCommit = findSplitPoint(branchName);
+        if (splitCommit == null) {
+            System.out.println("The split point is beyond the shallow history.");
+            endCommand();
+        }
         Commit branchCommit = Commit.getFromFile(Branch.getFromFile(branchName).commitID);
-        Commit currentCommit = Commit.getFromFile(readContentsAsString(HEAD));
-        // Create a list with all the paths of files recorded in these three commits.
+        Commit currentCommit = Commit.getFromFile(Transaction.readString(HEAD));
+        easyMerge(branchName, splitCommit, branchCommit, currentCommit);
+        // Create a list with the paths of files changed since the split point on either branch.
+        // Every other file is the same in all three commits, so the merge leaves it alone.
+        Trace.phase("changed-paths");
         Set<String> filePathList = new TreeSet<>();
-        filePathList.addAll(splitCommit.blobProjection.keySet());
-        filePathList.addAll(branchCommit.blobProjection.keySet());
-        filePathList.addAll(currentCommit.blobProjection.keySet());
-        // Iterate through all the files, determine the output result of merge on that file.
-        boolean conflictEncountered = false;
-        for (String filepath : filePathList) {
-            String resultVersion = fileResult(branchName, filepath);
-            if (resultVersion.equals("Conflict")) {
-                conflictEncountered = true;
-                File f = new File(filepath);
-                String currentContent;
-                String branchContent;
-                if (currentCommit.blobProjection.containsKey(filepath)) {
-                    byte[] currentByteContent = Blob.getFromFIle(currentCommit.blobProjection.get(filepath)).byteContent;
-                    currentContent = new String(currentByteContent, StandardCharsets.UTF_8);
-                } else {
-                    currentContent = "";
-                }
-                if (branchCommit.blobProjection.containsKey(filepath)) {
-                    byte[] branchByteContent = Blob.getFromFIle(branchCommit.blobProjection.get(filepath)).byteContent;
-                    branchContent = new String(branchByteContent, StandardCharsets.UTF_8);
-                } else {
-                    branchContent = "";
-                }
-                String output = "<<<<<<< HEAD\n" + currentContent + "=======\n" + branchContent + ">>>>>>>\n";
-                if (f.exists()) {
-                    f.delete();
-                }
-                createNewFile(f);
-                writeContents(f, output);
-                Blob blob = new Blob(f);
-                blob.saveToFile();
-                addStage.stageBlobMap.put(f.getPath(), blob.id);
+        filePathList.addAll(Tree.diff(splitCommit.treeID(), branchCommit.treeID()).keySet());
+        filePathList.addAll(Tree.diff(splitCommit.treeID(), currentCommit.treeID()).keySet());
+        // Merge the files, in parallel, and find the ones the merge changes.
+        Trace.phase("resolve");
+        SortedMap<String, Merge.Outcome> outcomes = Merge.resolve(
+                new ArrayList<>(filePathList), splitCommit, currentCommit, branchCommit);
+        // Nothing is written if the merge would overwrite or delete an untracked file.
+        for (String filepath : outcomes.keySet()) {
+            File f = new File(filepath);
+            if (f.exists() && currentCommit.blobID(filepath) == null) {
+                addStage.stageBlobMap.clear();
+                removeStage.stageBlobMap.clear();
                 addStage.saveToFile();
+                removeStage.saveToFile();
+                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+                endCommand();
             }
-            else if (resultVersion.equals("Current")) {
-                File f = new File(filepath);
-                if (currentCommit.blobProjection.containsKey(filepath)) {
-                    Blob blob = Blob.getFromFIle(currentCommit.blobProjection.get(filepath));
-                    addStage.stageBlobMap.put(f.getPath(), blob.id);
-                    addStage.saveToFile();
-                } else {
-                    removeStage.stageBlobMap.put(filepath, branchCommit.blobProjection.get(filepath));
-                    removeStage.saveToFile();
-                }
-            }
-            else if (resultVersion.equals("Branch")) {
-                File f = new File(filepath);
-                if (branchCommit.blobProjection.containsKey(filepath)) {
-                    Blob blob = Blob.getFromFIle(branchCommit.blobProjection.get(filepath));
-                    addStage.stageBlobMap.put(f.getPath(), blob.id);
-                    addStage.saveToFile();
-                } else {
-                    removeStage.stageBlobMap.put(filepath, currentCommit.blobProjection.get(filepath));
-                    removeStage.saveToFile();
-                }
-            }
-            untrackedFileInWay(filepath);
         }
-        for (String path : addStage.stageBlobMap.keySet()) {
-            File f = new File(path);
-            Blob b = Blob.getFromFIle(addStage.stageBlobMap.get(path));
-            writeContents(f, (Object) b.byteContent);
-        }
-        for (String path : removeStage.stageBlobMap.keySet()) {
-            File f = new File(path);
-            f.delete();
+        Trace.phase("write");
+        boolean conflictEncountered = false;
+        for (Map.Entry<String, Merge.Outcome> entry : outcomes.entrySet()) {
+            String filepath = entry.getKey();
+            Merge.Outcome outcome = entry.getValue();
+            conflictEncountered |= outcome.conflict;
+            File f = new File(filepath);
+            if (outcome.blobID != null) {
+                Blob.getFromFIle(outcome.blobID).writeTo(f);
+                addStage.stageBlobMap.put(filepath, outcome.blobID);
+            } else {
+                f.delete();
+                removeStage.stageBlobMap.put(filepath, currentCommit.blobID(filepath));
+            }
         }
+        addStage.saveToFile();
+        removeStage.saveToFile();
+        Trace.phase("commit");
         mergeCommit(branchName);
         if (conflictEncountered) {
             System.out.println("Encountered a merge conflict.");
@@ -663,18 +831,16 @@ public class Repository {
     }
 
     /** A separate easy case for merging. */
-    private static void easyMerge(String branchName) {
-        Commit splitCommit = findSplitPoint(branchName);
-        Commit branchCommit = Commit.getFromFile(Branch.getFromFile(branchName).commitID);
-        Commit currentCommit = Commit.getFromFile(readContentsAsString(HEAD));
+    private static void easyMerge(String branchName, Commit splitCommit,
+                                  Commit branchCommit, Commit currentCommit) {
         if (splitCommit.id.equals(branchCommit.id)) {
             System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            endCommand();
         }
         else if (splitCommit.id.equals(currentCommit.id)) {
             checkoutCommand3(branchName);
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            endCommand();
         }
     }
 
@@ -682,23 +848,22 @@ public class Repository {
     private static void mergeCommit(String branchName) {
         Stage addStage = Stage.getFromFile("addStage");
         Stage removeStage = Stage.getFromFile("removeStage");
-        String message = "Merged " + branchName + " into " + readContentsAsString(BRANCH) + ".";
-        Commit mergeCommit = new Commit(message, Commit.getFromFile(readContentsAsString(HEAD)));
-        addUpdate(mergeCommit, addStage);
-        removeUpdate(mergeCommit, removeStage);
+        String message = "Merged " + branchName + " into " + Transaction.readString(BRANCH) + ".";
+        Commit mergeCommit = new Commit(message, Commit.getFromFile(Transaction.readString(HEAD)));
+        stageUpdate(mergeCommit, addStage, removeStage);
         // Add the second parent into the parentList's second position.
         mergeCommit.parentList.add(Branch.getFromFile(branchName).commitID);
+        mergeCommit.id = mergeCommit.createID();
         mergeCommit.saveToFile();
         // Edit the HEAD pointer.
-        createNewFile(HEAD);
-        writeContents(HEAD, mergeCommit.id);
+        Transaction.write(HEAD, mergeCommit.id);
         // Clear the Stages and safe the changes
         addStage.stageBlobMap.clear();
         removeStage.stageBlobMap.clear();
         addStage.saveToFile();
         removeStage.saveToFile();
         // Update the branch and safe the changes.
-        Branch currentBranch = Branch.getFromFile(readContentsAsString(BRANCH));
+        Branch currentBranch = Branch.getFromFile(Transaction.readString(BRANCH));
         currentBranch.commitID = mergeCommit.id;
         currentBranch.saveToFile();
     }
@@ -709,7 +874,7 @@ public class Repository {
         Stage removeStage = Stage.getFromFile("removeStage");
         if (!addStage.stageBlobMap.isEmpty() || !removeStage.stageBlobMap.isEmpty()) {
             System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            endCommand();
         }
     }
 
@@ -717,127 +882,187 @@ public class Repository {
     private static void mergeWithItself(String branchName) {
         Stage addStage = Stage.getFromFile("addStage");
         Stage removeStage = Stage.getFromFile("removeStage");
-        if (Objects.equals(branchName, readContentsAsString(BRANCH))) {
+        if (Objects.equals(branchName, Transaction.readString(BRANCH))) {
             System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            endCommand();
         }
     }
 
-    /** Checks if an untracked file in the current commit
-     * would be overwritten or deleted by the merge. */
-    private static void untrackedFileInWay(String filepath) {
-        Commit currentCommit = Commit.getFromFile(readContentsAsString(HEAD));
-        File f = new File(filepath);
-        Stage addStage = Stage.getFromFile("addStage");
-        Stage removeStage = Stage.getFromFile("removeStage");
-        if (f.exists() && !checkFileInCurrentCommit(f)) {
-            if (addStage.stageBlobMap.containsKey(filepath) || removeStage.stageBlobMap.containsKey(filepath)) {
-                addStage.stageBlobMap.clear();
-                removeStage.stageBlobMap.clear();
-                addStage.saveToFile();
-                removeStage.saveToFile();
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+    /** Find the split point of current branch and given branch for the merge command.
+     *  The commit-graph is walked instead of the commits themselves, and only
+     *  back as far as the split point. Returns null if the split point lies
+     *  beyond the boundary of a shallow repository. */
+    static Commit findSplitPoint(String givenBranchName) {
+        Branch givenBranch = Branch.getFromFile(givenBranchName);
+        Branch currentBranch = Branch.getFromFile(Transaction.readString(BRANCH));
+        String splitCommitID = CommitGraph.load().mergeBase(currentBranch.commitID, givenBranch.commitID);
+        return splitCommitID == null ? null : Commit.getFromFile(splitCommitID);
+    }
+
+    /** Folds loose objects into packs. If ALL, every object ends up in a
+     *  single pack, otherwise only the loose objects are packed. Unless
+     *  DEPTH is 0, the history beyond DEPTH commits from any branch is
+     *  pruned first. The commit indexes are checked, and missing
+     *  changed-path filters written. */
+    public static void gcCommand(boolean all, int depth) {
+        checkGitletDir();
+        if (depth > 0) {
+            pruneHistory(depth);
+            return;
+        }
+        ObjectStore.repack(all);
+        CommitIndex.check();
+        MessageIndex.check();
+        CommitIdIndex.rebuild();
+        ChangedPaths.backfill();
+    }
+
+    /** Makes the repository shallow, keeping the commits fewer than DEPTH
+     *  steps from the head of a branch, with their trees and blobs and the
+     *  blobs of the stages, and deleting every other object. Kept commits
+     *  with parents that are not kept form the new shallow boundary, which
+     *  is saved before anything is deleted. The commit-graph, indexes and
+     *  changed-path filters are then rebuilt from the kept commits. */
+    private static void pruneHistory(int depth) {
+        List<String> heads = new ArrayList<>();
+        heads.add(Transaction.readString(HEAD));
+        for (String name : Branch.names()) {
+            heads.add(Branch.getFromFile(name).commitID);
+        }
+        CommitGraph graph = CommitGraph.load();
+        Shallow shallow = Shallow.load();
+        Set<String> kept = graph.recent(heads, depth);
+        List<String> boundary = new ArrayList<>();
+        Map<String, ObjectType> objects = new HashMap<>();
+        for (String id : kept) {
+            if (shallow.contains(id) || !kept.containsAll(graph.get(id).parents)) {
+                boundary.add(id);
+            }
+            objects.put(id, ObjectType.COMMIT);
+            Tree.collect(Commit.getFromFile(id).treeID(), Collections.emptySet(), objects);
+        }
+        for (String stage : List.of("addStage", "removeStage")) {
+            for (String blobID : Stage.getFromFile(stage).stageBlobMap.values()) {
+                objects.put(blobID, ObjectType.BLOB);
             }
         }
+        shallow.replace(boundary);
+        ObjectStore.repack(true, objects.keySet());
+        CommitGraph.rebuild();
+        ChangedPaths.FILE.delete();
+        CommitIndex.rebuild();
+        MessageIndex.check();
+        CommitIdIndex.rebuild();
+        ChangedPaths.backfill();
     }
 
-    /** Helper method that determines the result version after merge on file with filepath. */
-    private static String fileResult(String branchName, String filepath) {
-        Commit splitCommit = findSplitPoint(branchName);
-        Commit branchCommit = Commit.getFromFile(Branch.getFromFile(branchName).commitID);
-        Commit currentCommit = Commit.getFromFile(readContentsAsString(HEAD));
-        // Check if file exists in these three target commits. If not, set an BlobID of null temporarily.
-        Map<String, String> idMap = new TreeMap<>();    // IDs will be stored in this TreeMap.
-        if (!splitCommit.blobProjection.containsKey(filepath)) {
-            String splitID = null;
-            idMap.put("splitID", splitID);
-        } else {
-            String splitID = splitCommit.blobProjection.get(filepath);
-            idMap.put("splitID", splitID);
+    /** Computes the changed-path filters of the commits that have none,
+     *  such as those made before filters existed. */
+    public static void writeChangedPathsCommand() {
+        checkGitletDir();
+        int added = ChangedPaths.backfill();
+        System.out.println("Wrote changed-path filters for " + added + " commits.");
+    }
+
+    /** Saves the repository whose .gitlet folder is at PATH as the remote
+     *  NAME. PATH uses forward slashes, and may be relative. */
+    public static void addRemoteCommand(String name, String path) {
+        checkGitletDir();
+        File file = join(Remote.REMOTE_FOLDER, name);
+        if (Transaction.exists(file)) {
+            System.out.println("A remote with that name already exists.");
+            endCommand();
         }
-        if (!branchCommit.blobProjection.containsKey(filepath)) {
-            String branchID = null;
-            idMap.put("branchID", branchID);
-        } else {
-            String branchID = branchCommit.blobProjection.get(filepath);
-            idMap.put("branchID", branchID);
+        Remote.REMOTE_FOLDER.mkdir();
+        Transaction.write(file, path);
+    }
+
+    public static void rmRemoteCommand(String name) {
+        checkGitletDir();
+        File file = join(Remote.REMOTE_FOLDER, name);
+        if (!Transaction.exists(file)) {
+            System.out.println("A remote with that name does not exist.");
+            endCommand();
         }
-        if (!currentCommit.blobProjection.containsKey(filepath)) {
-            String currentID = null;
-            idMap.put("currentID", currentID);
-        } else {
-            String currentID = currentCommit.blobProjection.get(filepath);
-            idMap.put("currentID", currentID);
-        }
-        // Find the result of version of file after merge.
-        // If none of the ids are the same, this is a merge conflict for this file.
-        if (!Objects.equals(idMap.get("splitID"), idMap.get("branchID"))
-                && !Objects.equals(idMap.get("branchID"), idMap.get("currentID"))
-                && !Objects.equals(idMap.get("currentID"), idMap.get("splitID"))) {
-            return "Conflict";
-        }
-        // If all of them are the same, there are nothing to change for this file after merge.
-        else if (Objects.equals(idMap.get("splitID"), idMap.get("branchID"))
-                && Objects.equals(idMap.get("branchID"), idMap.get("currentID"))
-                && Objects.equals(idMap.get("currentID"), idMap.get("splitID"))) {
-            return "No change";
+        Transaction.delete(file);
+    }
+
+    /** Copies the commits of BRANCHNAME of the remote REMOTENAME that this
+     *  repository lacks, with their trees and blobs, and points the branch
+     *  REMOTENAME/BRANCHNAME at its head. Unless DEPTH is 0, only the
+     *  commits fewer than DEPTH steps from the head are copied. */
+    public static void fetchCommand(String remoteName, String branchName, int depth) {
+        checkGitletDir();
+        String head = Remote.fetch(remoteDirectory(remoteName), branchName, depth);
+        if (head == null) {
+            System.out.println("That remote does not have that branch.");
+            endCommand();
         }
-        else {
-            if (Objects.equals(idMap.get("splitID"), idMap.get("branchID"))
-                    && !Objects.equals(idMap.get("branchID"), idMap.get("currentID"))) {
-                return "Current";
-            }
-            else if (Objects.equals(idMap.get("splitID"), idMap.get("currentID"))
-                    && !Objects.equals(idMap.get("branchID"), idMap.get("currentID"))) {
-                return "Branch";
-            }
-            else {
-                return "No change";
-            }
+        join(BRANCH_FOLDER, remoteName).mkdir();
+        new Branch(remoteName + "/" + branchName, Commit.getFromFile(head)).saveToFile();
+    }
+
+    /** Appends the commits of the current branch that BRANCHNAME of the
+     *  remote REMOTENAME lacks to it, creating the branch if needed. */
+    public static void pushCommand(String remoteName, String branchName) {
+        checkGitletDir();
+        File dir = remoteDirectory(remoteName);
+        if (!Remote.push(dir, branchName, Transaction.readString(HEAD))) {
+            System.out.println("Please pull down remote changes before pushing.");
+            endCommand();
         }
     }
 
-    /** Find the split point of current branch and given branch for the merge command. */
-    private static Commit findSplitPoint(String givenBranchName) {
-        Branch givenBranch = Branch.getFromFile(givenBranchName);
-        Branch currentBranch = Branch.getFromFile(readContentsAsString(BRANCH));
-        Map<String, Integer> routeGivenBranch = findPathToInitialCommit(Commit.getFromFile(givenBranch.commitID));
-        Map<String, Integer> routeCurrentBranch = findPathToInitialCommit(Commit.getFromFile(currentBranch.commitID));
-        String splitCommitID = "";
-        int minValue = Integer.MAX_VALUE;
-        for (String commit: routeGivenBranch.keySet()) {
-            if (routeCurrentBranch.containsKey(commit)) {
-                if (routeCurrentBranch.get(commit) < minValue) {
-                    splitCommitID = commit;
-                    minValue = routeCurrentBranch.get(commit);
-                }
-            }
+    /** Fetches BRANCHNAME of the remote REMOTENAME, to DEPTH as in
+     *  fetchCommand, and merges it into the current branch. */
+    public static void pullCommand(String remoteName, String branchName, int depth) {
+        fetchCommand(remoteName, branchName, depth);
+        String trackingBranch = remoteName + "/" + branchName;
+        String fetched = Branch.getFromFile(trackingBranch).commitID;
+        String head = Transaction.readString(HEAD);
+        if (!fetched.equals(head) && head.equals(CommitGraph.load().mergeBase(head, fetched))) {
+            // Fast-forward the current branch itself, rather than checking
+            // out the remote-tracking branch as merge would.
+            filePresentForStage();
+            Commit target = Commit.getFromFile(fetched);
+            checkoutCommit(Commit.getFromFile(head), target, false);
+            Transaction.write(HEAD, target.id);
+            Branch currentBranch = Branch.getFromFile(Transaction.readString(BRANCH));
+            currentBranch.commitID = target.id;
+            currentBranch.saveToFile();
+            System.out.println("Current branch fast-forwarded.");
+            return;
         }
-        return Commit.getFromFile(splitCommitID);
-    }
-
-    /** Returns a map that contains paths from COMMIT to initial Commit. */
-    /** The key is the Commit ids in the paths, the value is the distance from COMMIT. */
-    private static Map<String, Integer> findPathToInitialCommit(Commit commit) {
-        Map<String, Integer> route = new TreeMap<>();
-        Queue<String> commitQueue = new ArrayDeque<>();
-        commitQueue.add(commit.id);
-        route.put(commit.id, 0);
-        while (!commitQueue.isEmpty()) {
-            String commitID = commitQueue.poll();
-            Commit currentCommit = Commit.getFromFile(commitID);
-            for (String parentCommit : currentCommit.parentList) {
-                if (route.containsKey(parentCommit)) {
-                    break;
-                } else {
-                    commitQueue.add(parentCommit);
-                    route.put(parentCommit, route.get(commitID) + 1);
-                }
+        mergeCommand(trackingBranch);
+    }
 
-            }
+    /** Returns the .gitlet folder of the remote NAME. Exits with a message
+     *  if there is no such remote or its folder does not exist. */
+    private static File remoteDirectory(String name) {
+        File dir = Remote.directory(name);
+        if (dir == null || !dir.isDirectory()) {
+            System.out.println("Remote directory not found.");
+            endCommand();
+        }
+        return dir;
+    }
+
+    /** Converts a repository written by an older version of gitlet to the
+     *  current object formats. */
+    public static void migrateCommand() {
+        checkGitletDir();
+        Migrator.migrate();
+    }
+
+    /** Exits with a message if the repository was written by an older
+     *  version of gitlet and has not been migrated, as its blobs may still
+     *  be serialized Blob objects. */
+    static void checkFormat() {
+        if (!Config.currentFormat()) {
+            System.out.println("This repository was written by an older version of gitlet."
+                    + " Run migrate first.");
+            endCommand();
         }
-        return route;
     }
 
     /** Checks if the current environment has been initialized a GITLET_DIR
@@ -845,7 +1070,7 @@ public class Repository {
     private static void checkGitletDir() {
         if (!GITLET_DIR.exists()) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            endCommand();
         }
     }
 
@@ -853,40 +1078,37 @@ public class Repository {
     private static void checkFileExists(File file) {
         if (!file.exists()) {
             System.out.println("File does not exits.");
-            System.exit(0);
+            endCommand();
         }
     }
 
     /** Checks if the current working version of the file
      *  is identical to the version in the current commit. */
-    private static boolean checkSameFile(File file, Blob blob) {
-        String currentCommitID = readContentsAsString(HEAD);
-        Commit currentCommit = Commit.getFromFile(currentCommitID);
-        if (currentCommit.blobProjection.containsKey(file.getPath())) {
-            return Objects.equals(currentCommit.blobProjection.get(file.getPath()), blob.id);
+    private static boolean checkSameFile(File file, Blob blob, Commit currentCommit) {
+        if (currentCommit.blobID(file.getPath()) != null) {
+            return Objects.equals(currentCommit.blobID(file.getPath()), blob.id);
         }
         return false;
     }
 
     /** Checks if the file is tracked in the current commit. */
     private static boolean checkFileInCurrentCommit(File file) {
-        String currentCommitID = readContentsAsString(HEAD);
+        String currentCommitID = Transaction.readString(HEAD);
         Commit currentCommit = Commit.getFromFile(currentCommitID);
-        if (currentCommit.blobProjection.containsKey(file.getPath())) {
+        if (currentCommit.blobID(file.getPath()) != null) {
             return true;
         }
         return false;
     }
 
     private static boolean checkFileInGivenCommit(File file, Commit commit) {
-        if (commit.blobProjection.containsKey(file.getPath())) {
+        if (commit.blobID(file.getPath()) != null) {
             return true;
         }
         return false;
     }
 
-    private static boolean untrackedFileInGivenCommit(File file, Commit commit) {
-        Stage addStage = Stage.getFromFile("addStage");
+    private static boolean untrackedFileInGivenCommit(File file, Commit commit, Stage addStage) {
         if (!addStage.stageBlobMap.containsKey(file.getPath()) && !checkFileInGivenCommit(file, commit)) {
             return true;
         }
@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import static gitlet.Utils.*;
+
+/** An operating-system lock on .gitlet/lock, which keeps gitlet processes
+ *  working on the same repository from interfering with each other.
+ *
+ *  Commands that change the repository hold it exclusively; commands that
+ *  only read take it shared, so any number of them run at once. A process
+ *  that cannot get the lock retries until the "lock-timeout" setting, in
+ *  milliseconds, runs out. The operating system releases the lock of a
+ *  process that dies, so a lock can never be left behind.
+ *
+ *  While an exclusive holder is changing the repository, the lock file
+ *  holds its process ID; it is emptied again just before the lock is
+ *  released. So the next process to find the file non-empty knows that the
+ *  last writer died midway, and that its Transaction must be recovered.
+ *  @author Boheng Mao
+ */
+class RepositoryLock {
+    static final File LOCK = join(Repository.GITLET_DIR, "lock");
+    /** Default of the lock-timeout setting. */
+    static final long DEFAULT_TIMEOUT = 10_000;
+    /** Longest pause between attempts to take the lock, in milliseconds. */
+    private static final long MAX_BACKOFF = 50;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private RepositoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /** Takes the lock, shared if SHARED and exclusive otherwise, waiting up
+     *  to the configured timeout. Ends the command with a message if it
+     *  times out. */
+    static RepositoryLock acquire(boolean shared) {
+        long timeout = Long.parseLong(Config.get("lock-timeout", Long.toString(DEFAULT_TIMEOUT)));
+        long deadline = System.currentTimeMillis() + timeout;
+        long backoff = 1;
+        try {
+            FileChannel channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            while (true) {
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                if (lock != null) {
+                    return new RepositoryLock(channel, lock);
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    channel.close();
+                    System.out.println("Timed out waiting for another gitlet process to finish.");
+                    endCommand();
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(MAX_BACKOFF, backoff * 2);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted waiting for the repository lock.");
+        }
+    }
+
+    /** Returns true if the last exclusive holder died while changing the
+     *  repository. */
+    boolean abandoned() {
+        try {
+            return channel.size() > 0;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Marks the repository as being changed by this process, which must
+     *  hold the lock exclusively. */
+    void markChanging() {
+        byte[] pid = Long.toString(ProcessHandle.current().pid()).getBytes(StandardCharsets.UTF_8);
+        try {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(pid), 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Releases the lock. An exclusive holder first marks the repository
+     *  as consistent again, unless KEEPMARK, as when an update could not
+     *  be applied and has to be recovered by the next process. */
+    void release(boolean keepMark) {
+        try {
+            if (!lock.isShared() && !keepMark) {
+                channel.truncate(0);
+            }
+            lock.release();
+            channel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The shallow boundary of a repository that keeps only recent history:
+ *  the commits whose parents it does not have, listed one ID per line in
+ *  .gitlet/shallow, as git does. A repository without the file has its
+ *  whole history.
+ *
+ *  History walks treat a boundary commit as if it had no parents, so the
+ *  commit-graph, log, the split point of a merge and the commits sent to a
+ *  remote all stop there instead of reading a missing commit. The commit
+ *  itself, and so its ID, keeps its real parents. A repository becomes
+ *  shallow when gc --depth=N prunes the history beyond N commits from its
+ *  branches, or when a fetch, limited by --depth=N or from a shallow
+ *  remote, brings in commits whose parents it lacks.
+ *  @author Boheng Mao
+ */
+class Shallow {
+    static final File FILE = join(Repository.GITLET_DIR, "shallow");
+
+    /** The IDs of the boundary commits. */
+    private final Set<String> boundary = new TreeSet<>();
+
+    private Shallow() {
+    }
+
+    /** Returns the boundary of the current repository, which is empty if
+     *  it has its whole history. */
+    static Shallow load() {
+        Shallow result = new Shallow();
+        if (FILE.isFile()) {
+            for (String line : readContentsAsString(FILE).split("\n")) {
+                if (!line.isEmpty()) {
+                    result.boundary.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true if the commit with ID is on the boundary. */
+    boolean contains(String id) {
+        return boundary.contains(id);
+    }
+
+    /** Returns the parents of COMMIT as far as this repository has them:
+     *  none for a boundary commit, and its parents otherwise. */
+    List<String> parents(Commit commit) {
+        return boundary.contains(commit.id) ? new ArrayList<>() : commit.parentList;
+    }
+
+    /** Adds IDS to the boundary and saves it. */
+    void addAll(Collection<String> ids) {
+        if (boundary.addAll(ids)) {
+            save();
+        }
+    }
+
+    /** Replaces the boundary with IDS and saves it, deleting the file if
+     *  IDS is empty. */
+    void replace(Collection<String> ids) {
+        boundary.clear();
+        boundary.addAll(ids);
+        save();
+    }
+
+    private void save() {
+        if (boundary.isEmpty()) {
+            FILE.delete();
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String id : boundary) {
+            contents.append(id).append('\n');
+        }
+        writeContents(FILE, contents.toString());
+    }
+}
@@ -6,6 +6,11 @@ import java.io.Serializable;
 import java.util.*;
 
 public class Stage implements Serializable{
+    /** Stages written by older versions of gitlet are Java-serialized;
+     *  keeping their UID lets them still be read. */
+    private static final long serialVersionUID = 5857732235935516277L;
+    /** Format version of encoded stages. */
+    static final int VERSION = 1;
     public String stageName;
     /** A mapping of file paths to blob id, where file paths is the key. */
     public Map<String, String> stageBlobMap = new TreeMap<>();
@@ -17,12 +22,40 @@ public class Stage implements Serializable{
 
     public void saveToFile() {
         File outfile = join(Repository.STAGE_FOLDER, this.stageName);
-        writeObject(outfile, this);
+        Transaction.write(outfile, encode());
     }
 
     public static Stage getFromFile(String stageName) {
         File infile = join(Repository.STAGE_FOLDER, stageName);
-        return readObject(infile, Stage.class);
+        return decode(Transaction.read(infile));
+    }
+
+    /** Returns the compact binary encoding of this stage. */
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer('S', VERSION)
+                .writeString(stageName)
+                .writePathMap(stageBlobMap)
+                .writeVarint(stageBlobID.size());
+        for (String blobID : stageBlobID) {
+            out.writeId(blobID);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the stage encoded in BYTES, which may also be a stage
+     *  serialized by an older version of gitlet. */
+    public static Stage decode(byte[] bytes) {
+        if (Codec.isSerialized(bytes)) {
+            return deserialize(bytes, Stage.class);
+        }
+        Codec.Reader in = new Codec.Reader(bytes, 'S', VERSION);
+        Stage stage = new Stage(in.readString());
+        in.readPathMap(stage.stageBlobMap);
+        int count = (int) in.readVarint();
+        for (int i = 0; i < count; i += 1) {
+            stage.stageBlobID.add(in.readId());
+        }
+        return stage;
     }
 
 }
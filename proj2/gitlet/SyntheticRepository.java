@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** A synthetic gitlet repository for benchmarks, built in the working
+ *  directory by running gitlet commands in this process. Its shape is set
+ *  by four numbers:
+ *
+ *  files     -- files in the working directory, of config-like text lines;
+ *  fileSize  -- the size of each file in bytes, roughly;
+ *  depth     -- commits on master after the one adding every file, each
+ *               rewriting a line of about one file in a hundred;
+ *  branches  -- branches topic0, topic1, ... forked from master at evenly
+ *               spaced commits, each with depth / 4 commits of its own.
+ *
+ *  Master only changes even-numbered files and the topic branches only odd
+ *  ones, so merging a topic branch into master never conflicts. Contents
+ *  depend only on the shape, so repositories of one shape are identical
+ *  but for commit times.
+ *  @author Boheng Mao
+ */
+class SyntheticRepository {
+    /** Length of a line of a file, newline included. */
+    private static final int LINE_LENGTH = 32;
+    /** Where the output of commands goes. */
+    static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    final int files;
+    final int fileSize;
+    final int depth;
+    final int branches;
+    /** Number of commits made so far, which numbers the changed lines. */
+    private int commits;
+
+    SyntheticRepository(int files, int fileSize, int depth, int branches) {
+        if (files < 2 || fileSize < LINE_LENGTH || depth < branches || branches < 0) {
+            throw error("Bad repository shape.");
+        }
+        this.files = files;
+        this.fileSize = fileSize;
+        this.depth = depth;
+        this.branches = branches;
+    }
+
+    /** Builds the repository in the working directory, which must not be
+     *  a gitlet repository yet, and leaves master checked out. */
+    void build() {
+        run("init");
+        for (int i = 0; i < files; i += 1) {
+            writeContents(file(i), (Object) initialContents(i));
+        }
+        run("add", ".");
+        run("commit", "Add " + files + " files");
+        int nextBranch = 0;
+        for (int c = 1; c <= depth; c += 1) {
+            if (nextBranch < branches && c == (nextBranch + 1) * depth / (branches + 1)) {
+                run("branch", "topic" + nextBranch);
+                nextBranch += 1;
+            }
+            commitChanges(0);
+        }
+        for (int k = 0; k < branches; k += 1) {
+            run("checkout", "topic" + k);
+            for (int c = 0; c < Math.max(1, depth / 4); c += 1) {
+                commitChanges(1);
+            }
+        }
+        if (branches > 0) {
+            run("checkout", "master");
+        }
+    }
+
+    /** Changes the files of the next commit, those numbered PARITY modulo
+     *  two, and commits them. */
+    private void commitChanges(int parity) {
+        int changed = Math.max(1, files / 100);
+        int first = commits * changed;
+        for (int t = 0; t < changed; t += 1) {
+            int half = (first + t) % (files / 2);
+            change(2 * half + parity);
+        }
+        run("add", ".");
+        run("commit", "Change " + changed + " files, commit " + commits);
+    }
+
+    /** Rewrites a line of file I in the working directory, a different
+     *  line each time. */
+    void change(int i) {
+        commits += 1;
+        byte[] contents = readContents(file(i));
+        int lines = contents.length / LINE_LENGTH;
+        int line = (int) ((commits * 37L) % lines);
+        byte[] replacement = line(i, line, "changed" + commits);
+        System.arraycopy(replacement, 0, contents, line * LINE_LENGTH, LINE_LENGTH);
+        writeContents(file(i), (Object) contents);
+    }
+
+    /** Returns file I of the working directory. */
+    File file(int i) {
+        return join(Repository.CWD, "file" + i + ".conf");
+    }
+
+    /** Returns the contents file I starts with. */
+    private byte[] initialContents(int i) {
+        Random values = new Random(i);
+        int lines = fileSize / LINE_LENGTH;
+        byte[] contents = new byte[lines * LINE_LENGTH];
+        for (int line = 0; line < lines; line += 1) {
+            byte[] text = line(i, line, Integer.toString(values.nextInt(1_000_000)));
+            System.arraycopy(text, 0, contents, line * LINE_LENGTH, LINE_LENGTH);
+        }
+        return contents;
+    }
+
+    /** Returns line LINE of file I with VALUE, padded to LINE_LENGTH. */
+    private static byte[] line(int i, int line, String value) {
+        StringBuilder text = new StringBuilder("f" + i + ".k" + line + " = " + value);
+        text.setLength(Math.min(text.length(), LINE_LENGTH - 1));
+        while (text.length() < LINE_LENGTH - 1) {
+            text.append(' ');
+        }
+        return text.append('\n').toString().getBytes();
+    }
+
+    /** Runs the gitlet command ARGS in this process, discarding what it
+     *  prints. */
+    static void run(String... args) {
+        PrintStream stdout = System.out;
+        System.setOut(DISCARD);
+        try {
+            Main.run(args);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+}
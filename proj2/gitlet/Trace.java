@@ -0,0 +1,283 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Opt-in tracing of gitlet commands, to see where the time of a slow
+ *  command goes. Tracing is on when the GITLET_TRACE environment variable
+ *  names a file; otherwise every call here returns at once.
+ *
+ *  Each command is a span, and so are the steps it is divided into: phases,
+ *  which follow each other inside the innermost span of a thread and each
+ *  end when the next one starts, and nested spans, opened and closed around
+ *  a call with try-with-resources. Spans opened on other threads, such as
+ *  those of fork-join pools, are nested in the command. Alongside the
+ *  times, counters record the objects and bytes read and written, the
+ *  SHA-1 hashes computed and the hits and misses of the ObjectCache.
+ *
+ *  When a command ends, even by exiting early with a message, a summary of
+ *  its phases and counters is printed to standard error, and the trace is
+ *  appended to the file: as one JSON object per line if its name ends in
+ *  ".json", and otherwise as folded stacks, a line per span path with its
+ *  own time in microseconds, as flame graph tools read them.
+ *  @author Boheng Mao
+ */
+class Trace {
+    /** The file traces are appended to, or null if tracing is off. */
+    private static final String FILE = System.getenv("GITLET_TRACE");
+    static final boolean ENABLED = FILE != null && !FILE.isEmpty();
+
+    /** What the counters count. */
+    enum Counter {
+        OBJECT_READS("objectReads"),
+        OBJECT_WRITES("objectWrites"),
+        BYTES_READ("bytesRead"),
+        BYTES_WRITTEN("bytesWritten"),
+        SHA1("sha1"),
+        CACHE_HITS("cacheHits"),
+        CACHE_MISSES("cacheMisses");
+
+        /** The name of the counter in traces. */
+        final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    /** The totals of one span path. */
+    private static class Totals {
+        long calls;
+        long nanos;
+        long selfNanos;
+    }
+
+    /** A span of time in a command. */
+    static class Span implements AutoCloseable {
+        /** The names of this span and the spans it is in, separated by
+         *  semicolons. */
+        final String path;
+        /** The span this one is in on the same thread, or null. */
+        private final Span parent;
+        private final long start = System.nanoTime();
+        /** The phase or span open inside this one on the same thread. */
+        private Span child;
+        /** The time spent in closed children on the same thread. */
+        private long childNanos;
+        /** True for a phase, which its parent closes. */
+        private final boolean phase;
+        private boolean closed;
+
+        Span(String path, Span parent, boolean phase) {
+            this.path = path;
+            this.parent = parent;
+            this.phase = phase;
+        }
+
+        /** Ends this span, and the spans still open inside it. */
+        @Override
+        public void close() {
+            synchronized (Trace.class) {
+                if (closed) {
+                    return;
+                }
+                if (child != null) {
+                    child.close();
+                }
+                closed = true;
+                long nanos = System.nanoTime() - start;
+                Totals totals = TOTALS.computeIfAbsent(path, k -> new Totals());
+                totals.calls += 1;
+                totals.nanos += nanos;
+                totals.selfNanos += Math.max(0, nanos - childNanos);
+                if (parent != null) {
+                    parent.childNanos += nanos;
+                    if (parent.child == this) {
+                        parent.child = null;
+                    }
+                }
+                if (CURRENT.get() == this) {
+                    CURRENT.set(parent != null && !parent.closed ? parent : null);
+                }
+            }
+        }
+    }
+
+    /** The innermost open span of each thread. */
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final LongAdder[] COUNTS = new LongAdder[Counter.values().length];
+    /** The totals of each span path of the current command. */
+    private static final Map<String, Totals> TOTALS = new TreeMap<>();
+    /** The span of the current command, or null between commands. */
+    private static Span command;
+    private static boolean hooked;
+
+    static {
+        for (int i = 0; i < COUNTS.length; i += 1) {
+            COUNTS[i] = new LongAdder();
+        }
+    }
+
+    /** Starts tracing the command NAME. */
+    static synchronized void begin(String name) {
+        if (!ENABLED) {
+            return;
+        }
+        TOTALS.clear();
+        for (LongAdder count : COUNTS) {
+            count.reset();
+        }
+        command = new Span(name, null, false);
+        CURRENT.set(command);
+        if (!hooked) {
+            // Commands that exit early with a message are traced as well.
+            Runtime.getRuntime().addShutdownHook(new Thread(Trace::end));
+            hooked = true;
+        }
+    }
+
+    /** Ends the current command, if any, and reports its trace. */
+    static synchronized void end() {
+        if (!ENABLED || command == null) {
+            return;
+        }
+        Span finished = command;
+        finished.close();
+        command = null;
+        CURRENT.remove();
+        report(finished.path);
+    }
+
+    /** Returns a new span NAME inside the innermost span of this thread, or
+     *  inside the command if there is none, to be closed by the caller; or
+     *  null if tracing is off, which try-with-resources allows. Methods
+     *  that only open a span for its timing suppress the "try" lint warning
+     *  about the unused resource. */
+    static Span span(String name) {
+        if (!ENABLED) {
+            return null;
+        }
+        synchronized (Trace.class) {
+            Span parent = CURRENT.get();
+            if (parent == null && command == null) {
+                return null;
+            }
+            Span span;
+            if (parent == null) {
+                // A thread of a pool: the time is counted in the command's
+                // path, but not taken from the command's own time.
+                span = new Span(command.path + ";" + name, null, false);
+            } else {
+                span = new Span(parent.path + ";" + name, parent, false);
+                parent.child = span;
+            }
+            CURRENT.set(span);
+            return span;
+        }
+    }
+
+    /** Ends the phase this thread is in, if any, and starts the phase NAME
+     *  of the innermost span that is not a phase. */
+    static void phase(String name) {
+        if (!ENABLED) {
+            return;
+        }
+        synchronized (Trace.class) {
+            Span owner = CURRENT.get();
+            while (owner != null && owner.phase) {
+                owner = owner.parent;
+            }
+            if (owner == null) {
+                return;
+            }
+            if (owner.child != null) {
+                owner.child.close();
+            }
+            Span phase = new Span(owner.path + ";" + name, owner, true);
+            owner.child = phase;
+            CURRENT.set(phase);
+        }
+    }
+
+    /** Adds N to COUNTER. */
+    static void count(Counter counter, long n) {
+        if (ENABLED) {
+            COUNTS[counter.ordinal()].add(n);
+        }
+    }
+
+    /** Prints the summary of the command NAME and appends its trace to
+     *  FILE. */
+    private static void report(String name) {
+        long wall = TOTALS.get(name).nanos;
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "trace: %s %.3f ms%n", name, wall / 1e6));
+        for (Map.Entry<String, Totals> entry : TOTALS.entrySet()) {
+            if (!entry.getKey().equals(name)) {
+                summary.append(String.format(Locale.ROOT, "  %-40s %6d calls %12.3f ms%n",
+                        entry.getKey().substring(name.length() + 1), entry.getValue().calls,
+                        entry.getValue().nanos / 1e6));
+            }
+        }
+        summary.append("  ");
+        for (Counter counter : Counter.values()) {
+            summary.append(counter.key).append('=').append(COUNTS[counter.ordinal()].sum())
+                    .append(' ');
+        }
+        summary.append(String.format(Locale.ROOT, "cacheHitRate=%.3f%n", cacheHitRate()));
+        System.err.print(summary);
+
+        StringBuilder out = new StringBuilder();
+        if (FILE.endsWith(".json")) {
+            out.append("{\"command\":\"").append(name).append("\",\"wallMillis\":")
+                    .append(millis(wall)).append(",\"phases\":[");
+            String separator = "";
+            for (Map.Entry<String, Totals> entry : TOTALS.entrySet()) {
+                Totals totals = entry.getValue();
+                out.append(separator).append("{\"path\":\"").append(entry.getKey())
+                        .append("\",\"calls\":").append(totals.calls)
+                        .append(",\"totalMillis\":").append(millis(totals.nanos))
+                        .append(",\"selfMillis\":").append(millis(totals.selfNanos)).append('}');
+                separator = ",";
+            }
+            out.append("],\"counters\":{");
+            for (Counter counter : Counter.values()) {
+                out.append('"').append(counter.key).append("\":")
+                        .append(COUNTS[counter.ordinal()].sum()).append(',');
+            }
+            out.append("\"cacheHitRate\":").append(String.format(Locale.ROOT, "%.4f", cacheHitRate()))
+                    .append("}}\n");
+        } else {
+            for (Map.Entry<String, Totals> entry : TOTALS.entrySet()) {
+                long micros = entry.getValue().selfNanos / 1000;
+                if (micros > 0) {
+                    out.append(entry.getKey()).append(' ').append(micros).append('\n');
+                }
+            }
+        }
+        try (Writer writer = Files.newBufferedWriter(Paths.get(FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(out.toString());
+        } catch (IOException excp) {
+            System.err.println("trace: cannot write " + FILE + ": " + excp.getMessage());
+        }
+    }
+
+    private static double cacheHitRate() {
+        long hits = COUNTS[Counter.CACHE_HITS.ordinal()].sum();
+        long lookups = hits + COUNTS[Counter.CACHE_MISSES.ordinal()].sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,471 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** Crash-safe updates of the small files that name the state of a
+ *  repository: HEAD, BRANCH, the branches and the stages.
+ *
+ *  A command that changes them runs in a transaction. begin() takes the
+ *  RepositoryLock exclusively. Writes and deletes in the transaction are
+ *  only buffered, and reads see them. commit() appends all of them as one
+ *  record to the redo journal, .gitlet/journal, forces the journal to disk,
+ *  and only then applies them, each by writing a temporary file and renaming
+ *  it over the old one. A crash before the journal is forced leaves every
+ *  file as it was; a crash after leaves a record that the next process to
+ *  take the lock replays, as the lock shows the change was abandoned.
+ *
+ *  Applied files are not forced one by one. Instead the journal keeps its
+ *  records until it grows past CHECKPOINT_SIZE; a checkpoint then forces
+ *  every file the journal names, in one batch, and empties it. So a command
+ *  costs one fsync, however many files it changes. The objects a
+ *  transaction wrote are the exception: a record may name them, so commit()
+ *  forces them, and their folders, in one batch before journaling it.
+ *
+ *  A journal record is the magic "GJNL", the length of its payload, the
+ *  payload and its CRC-32. The payload is the number of updates, then each
+ *  update's kind, path relative to .gitlet, and for writes the new contents.
+ *  A record that is cut short or fails its checksum ends the journal.
+ *
+ *  Outside a transaction, as in init, writes go straight to their files,
+ *  still through a rename.
+ *  @author Boheng Mao
+ */
+class Transaction {
+    static final File JOURNAL = join(Repository.GITLET_DIR, "journal");
+    static final int MAGIC = 0x474a4e4c;
+    /** Journal size past which a commit checkpoints the journal. */
+    static final long CHECKPOINT_SIZE = 256 * 1024;
+
+    private static final byte WRITE = 1;
+    private static final byte DELETE = 2;
+
+    /** The transaction of this process, or null if none is open. */
+    private static Transaction current;
+    /** The lock held by the open transaction. */
+    private static RepositoryLock lock;
+    /** The files read by snapshot, or null. */
+    private static Map<File, byte[]> snapshot;
+    /** True once the shutdown hook committing open transactions is added. */
+    private static boolean hooked;
+
+    /** The buffered updates by file, mapping to null for deletes. */
+    private final Map<File, byte[]> updates = new LinkedHashMap<>();
+    /** The object files written during this transaction. */
+    private final Set<File> objects = new LinkedHashSet<>();
+
+    private Transaction() {
+    }
+
+    /** Takes the repository lock exclusively and opens a transaction,
+     *  first replaying the journal if the last process to change the
+     *  repository died. The transaction is committed when gitlet exits,
+     *  unless it was committed or aborted before. */
+    static synchronized void begin() {
+        if (current != null) {
+            throw error("A transaction is already open.");
+        }
+        lock = RepositoryLock.acquire(false);
+        if (lock.abandoned()) {
+            recover();
+        }
+        lock.markChanging();
+        current = new Transaction();
+        if (!hooked) {
+            // Commands that stop early with a message keep what they wrote
+            // before, so a transaction still open at exit is committed.
+            Runtime.getRuntime().addShutdownHook(new Thread(Transaction::commit));
+            hooked = true;
+        }
+    }
+
+    /** Returns true if a transaction is open, and so this process holds the
+     *  repository lock exclusively. */
+    static synchronized boolean isOpen() {
+        return current != null;
+    }
+
+    /** Reads HEAD, BRANCH, the current branch and the stages under a
+     *  shared lock, for a command that only reads the repository, and
+     *  releases the lock right away. Later reads of these files return what
+     *  was read here, so the command sees one consistent state however long
+     *  it runs, without holding up commands that change the repository. */
+    static synchronized void snapshot() {
+        RepositoryLock shared = RepositoryLock.acquire(true);
+        if (shared.abandoned()) {
+            // Recovering takes the lock exclusively, for a moment.
+            shared.release(false);
+            RepositoryLock exclusive = RepositoryLock.acquire(false);
+            if (exclusive.abandoned()) {
+                recover();
+            }
+            exclusive.release(false);
+            shared = RepositoryLock.acquire(true);
+        }
+        try {
+            snapshot = new HashMap<>();
+            List<File> files = new ArrayList<>(List.of(Repository.HEAD, Repository.BRANCH,
+                    join(Repository.STAGE_FOLDER, "addStage"),
+                    join(Repository.STAGE_FOLDER, "removeStage")));
+            for (File file : files) {
+                if (file.isFile()) {
+                    snapshot.put(file, readContents(file));
+                }
+            }
+            if (snapshot.containsKey(Repository.BRANCH)) {
+                File branch = join(Repository.BRANCH_FOLDER,
+                        new String(snapshot.get(Repository.BRANCH), StandardCharsets.UTF_8));
+                if (branch.isFile()) {
+                    snapshot.put(branch, readContents(branch));
+                }
+            }
+        } finally {
+            shared.release(false);
+        }
+    }
+
+    /** Forgets the files read by snapshot, when the command is done. */
+    static synchronized void dropSnapshot() {
+        snapshot = null;
+    }
+
+    /** Writes CONTENTS to FILE, in the open transaction if there is one. */
+    static synchronized void write(File file, byte[] contents) {
+        if (current != null) {
+            current.updates.put(file, contents);
+        } else {
+            replace(file, contents);
+        }
+    }
+
+    /** Writes CONTENTS to FILE as UTF-8. */
+    static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Deletes FILE, in the open transaction if there is one. */
+    static synchronized void delete(File file) {
+        if (current != null) {
+            current.updates.put(file, null);
+        } else {
+            file.delete();
+        }
+    }
+
+    /** Returns true if FILE exists, as updated by the open transaction. */
+    static synchronized boolean exists(File file) {
+        if (current != null && current.updates.containsKey(file)) {
+            return current.updates.get(file) != null;
+        }
+        if (snapshot != null && snapshot.containsKey(file)) {
+            return true;
+        }
+        return file.isFile();
+    }
+
+    /** Returns the contents of FILE, as updated by the open transaction. */
+    static synchronized byte[] read(File file) {
+        if (current != null && current.updates.containsKey(file)) {
+            byte[] contents = current.updates.get(file);
+            if (contents == null) {
+                throw error("%s was deleted.", file.getName());
+            }
+            return contents;
+        }
+        if (snapshot != null && snapshot.containsKey(file)) {
+            return snapshot.get(file);
+        }
+        return readContents(file);
+    }
+
+    /** Returns the contents of FILE as a UTF-8 string, as updated by the
+     *  open transaction. */
+    static String readString(File file) {
+        return new String(read(file), StandardCharsets.UTF_8);
+    }
+
+    /** Notes that FILE, an object file, was written by the open
+     *  transaction, so that it is on disk before any update naming it is
+     *  journaled. Does nothing outside a transaction. */
+    static synchronized void wroteObject(File file) {
+        if (current != null) {
+            current.objects.add(file);
+        }
+    }
+
+    /** Writes the updates of the open transaction durably to the journal,
+     *  applies them and releases the lock. */
+    static synchronized void commit() {
+        if (current == null) {
+            return;
+        }
+        Transaction transaction = current;
+        current = null;
+        try {
+            if (!transaction.updates.isEmpty()) {
+                forceAll(transaction.objects);
+                appendRecord(transaction.encode());
+                transaction.apply();
+                if (JOURNAL.length() > CHECKPOINT_SIZE) {
+                    checkpoint();
+                }
+            }
+        } catch (RuntimeException excp) {
+            // Leave the lock marked, so the next process replays the journal.
+            lock.release(true);
+            lock = null;
+            throw excp;
+        }
+        lock.release(false);
+        lock = null;
+    }
+
+    /** Discards the updates of the open transaction and releases the lock. */
+    static synchronized void abort() {
+        if (current != null) {
+            current = null;
+            lock.release(false);
+            lock = null;
+        }
+    }
+
+    /** Returns the journal payload of this transaction's updates. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(updates.size());
+            for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+                out.writeByte(update.getValue() == null ? DELETE : WRITE);
+                out.writeUTF(relativePath(update.getKey()));
+                if (update.getValue() != null) {
+                    out.writeInt(update.getValue().length);
+                    out.write(update.getValue());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Applies this transaction's updates to their files. */
+    private void apply() {
+        for (Map.Entry<File, byte[]> update : updates.entrySet()) {
+            if (update.getValue() == null) {
+                update.getKey().delete();
+            } else {
+                replace(update.getKey(), update.getValue());
+            }
+        }
+    }
+
+    /** Returns the path of FILE relative to .gitlet. */
+    private static String relativePath(File file) {
+        Path root = Repository.GITLET_DIR.toPath().toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            throw error("%s is outside the repository.", file.getPath());
+        }
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /** Appends a record with PAYLOAD to the journal and forces it to disk. */
+    private static void appendRecord(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length + 8);
+        record.putInt(MAGIC).putInt(payload.length).put(payload).putLong(crc.getValue()).flip();
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the payloads of the complete records of the journal. */
+    private static List<byte[]> readRecords() {
+        List<byte[]> records = new ArrayList<>();
+        if (!JOURNAL.isFile()) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(JOURNAL.toPath())))) {
+            while (true) {
+                if (in.readInt() != MAGIC) {
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0 || length > JOURNAL.length()) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (in.readLong() != crc.getValue()) {
+                    break;
+                }
+                records.add(payload);
+            }
+        } catch (EOFException excp) {
+            // The end of the journal, or a record cut short by a crash.
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return records;
+    }
+
+    /** Returns the updates of the journal record PAYLOAD. */
+    private static Transaction decode(byte[] payload) {
+        Transaction transaction = new Transaction();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                byte kind = in.readByte();
+                File file = join(Repository.GITLET_DIR, in.readUTF());
+                byte[] contents = null;
+                if (kind == WRITE) {
+                    contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                }
+                transaction.updates.put(file, contents);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return transaction;
+    }
+
+    /** Replays the journal after a crash, so that the files end up as the
+     *  last committed transaction left them, and checkpoints it. Replaying
+     *  writes whole files, so records already applied are simply applied
+     *  again. */
+    private static void recover() {
+        for (byte[] payload : readRecords()) {
+            decode(payload).apply();
+        }
+        checkpoint();
+    }
+
+    /** Forces every file named in the journal, and their folders, to disk,
+     *  then empties the journal. */
+    private static void checkpoint() {
+        Set<File> files = new LinkedHashSet<>();
+        for (byte[] payload : readRecords()) {
+            files.addAll(decode(payload).updates.keySet());
+        }
+        forceAll(files);
+        try (FileChannel channel = FileChannel.open(JOURNAL.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces each of FILES that exists, and the folders of all of them,
+     *  to disk. */
+    static void forceAll(Collection<File> files) {
+        Set<File> folders = new LinkedHashSet<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                force(file.toPath(), StandardOpenOption.WRITE);
+            }
+            folders.add(file.getParentFile());
+        }
+        for (File folder : folders) {
+            force(folder.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    /** Forces PATH, opened with OPTION, to disk. Folders cannot be forced on
+     *  every platform, so failing to force one is ignored. */
+    private static void force(Path path, StandardOpenOption option) {
+        try (FileChannel channel = FileChannel.open(path, option)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path)) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Replaces the contents of FILE with CONTENTS by writing them to a
+     *  temporary file beside it and renaming that over FILE, so readers see
+     *  either the old or the new contents. Each call writes its own uniquely
+     *  named temporary file, so processes replacing FILE at the same time
+     *  never write into each other's. */
+    static void replace(File file, byte[] contents) {
+        File tmp = tempFile(file);
+        try {
+            try (BufferedOutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath()))) {
+                out.write(contents);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replaces FILE, a cache that can be rebuilt from the rest of the
+     *  repository, as replace does. Read-only commands save caches without
+     *  holding the lock, so other processes may be replacing FILE at the
+     *  same time: whichever rename lands last wins, and a replacement that
+     *  fails is simply dropped. */
+    static void replaceCache(File file, byte[] contents) {
+        try {
+            replace(file, contents);
+        } catch (IllegalArgumentException excp) {
+            // Another process replaced or removed the cache; it is rebuilt
+            // the next time it is missing or stale.
+        }
+    }
+
+    /** Returns a new, empty temporary file with a unique name in the folder
+     *  of FILE, to be renamed over FILE. */
+    static File tempFile(File file) {
+        try {
+            return Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+                    file.getName() + ".", ".tmp").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A tree object: the contents of one directory of a commit, mapping each
+ *  file name to a blob and each subdirectory name to another tree. Trees are
+ *  content-addressed by the SHA-1 of their encoding, so a directory that did
+ *  not change between two commits is stored once and shared by both, and two
+ *  snapshots can be compared by walking only the trees whose IDs differ.
+ *
+ *  Paths passed to and returned from the static methods are the absolute
+ *  paths used as keys everywhere else in gitlet; the root tree of a commit
+ *  stands for the current working directory.
+ *  @author Boheng Mao
+ */
+public class Tree {
+    /** Format version of encoded trees. */
+    static final int VERSION = 1;
+
+    /** One named entry of a tree: a blob or a subtree and its ID. */
+    static class Entry {
+        final ObjectType type;
+        final String id;
+
+        Entry(ObjectType type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return type == ObjectType.TREE;
+        }
+
+        boolean sameAs(Entry other) {
+            return other != null && type == other.type && id.equals(other.id);
+        }
+    }
+
+    /** The ID of this tree. */
+    public final String id;
+    /** The entries of this tree keyed by name, in lexicographic order. */
+    private final SortedMap<String, Entry> entries;
+
+    private Tree(SortedMap<String, Entry> entries) {
+        this.entries = entries;
+        this.id = sha1((Object) encode());
+    }
+
+    /** Returns the entries of this tree keyed by name. */
+    SortedMap<String, Entry> entries() {
+        return entries;
+    }
+
+    public static Tree getFromFile(String id) {
+        return ObjectStore.readObject(ObjectType.TREE, id, Tree.class, Tree::decode);
+    }
+
+    /** Stores this tree unless it is already stored. */
+    public void saveToFile() {
+        if (!ObjectStore.contains(ObjectType.TREE, id)) {
+            ObjectStore.write(ObjectType.TREE, id, encode());
+        }
+    }
+
+    /** Returns the compact binary encoding of this tree: the number of
+     *  entries, then the name, type code and ID of each. */
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer('T', VERSION).writeVarint(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.writeString(entry.getKey())
+                    .writeVarint(entry.getValue().type.code)
+                    .writeId(entry.getValue().id);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree encoded in BYTES. */
+    public static Tree decode(byte[] bytes) {
+        Codec.Reader in = new Codec.Reader(bytes, 'T', VERSION);
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        int size = (int) in.readVarint();
+        for (int i = 0; i < size; i += 1) {
+            String name = in.readString();
+            ObjectType type = ObjectType.fromCode((byte) in.readVarint());
+            entries.put(name, new Entry(type, in.readId()));
+        }
+        return new Tree(entries);
+    }
+
+    /** Returns the entries of the tree with ID, or an empty map if ID is
+     *  null. */
+    private static SortedMap<String, Entry> entriesOf(String id) {
+        return id == null ? new TreeMap<>() : getFromFile(id).entries;
+    }
+
+    /** Stores the tree holding exactly the files of FILES, a mapping of
+     *  absolute paths to blob IDs, and returns its ID. */
+    public static String write(Map<String, String> files) {
+        return update(null, new TreeMap<>(files));
+    }
+
+    /** Returns the ID of the tree obtained from the tree with ID by applying
+     *  CHANGES, a mapping of absolute paths to their new blob IDs, or to null
+     *  for paths to remove. Only the trees on the way to a changed path are
+     *  rewritten; every other subtree is shared with the original. */
+    public static String update(String id, SortedMap<String, String> changes) {
+        String result = update(id, Repository.CWD, changes);
+        if (result == null) {
+            Tree empty = new Tree(new TreeMap<>());
+            empty.saveToFile();
+            result = empty.id;
+        }
+        return result;
+    }
+
+    /** Applies CHANGES, all to paths under DIR, to the tree with ID, which
+     *  is the contents of DIR. Returns the ID of the new tree, or null if it
+     *  is empty. */
+    private static String update(String id, File dir, SortedMap<String, String> changes) {
+        SortedMap<String, Entry> entries = new TreeMap<>(entriesOf(id));
+        SortedMap<String, SortedMap<String, String>> subdirChanges = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String relative = relativePath(dir, change.getKey());
+            int slash = relative.indexOf(File.separatorChar);
+            if (slash >= 0) {
+                subdirChanges.computeIfAbsent(relative.substring(0, slash), k -> new TreeMap<>())
+                        .put(change.getKey(), change.getValue());
+            } else if (change.getValue() != null) {
+                entries.put(relative, new Entry(ObjectType.BLOB, change.getValue()));
+            } else if (entries.containsKey(relative) && !entries.get(relative).isTree()) {
+                entries.remove(relative);
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, String>> subdir : subdirChanges.entrySet()) {
+            String name = subdir.getKey();
+            Entry old = entries.get(name);
+            String newID = update(old != null && old.isTree() ? old.id : null,
+                    new File(dir, name), subdir.getValue());
+            if (newID == null) {
+                entries.remove(name);
+            } else {
+                entries.put(name, new Entry(ObjectType.TREE, newID));
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Tree tree = new Tree(entries);
+        tree.saveToFile();
+        return tree.id;
+    }
+
+    /** Returns the ID of the blob at PATH in the tree with ID, or null if
+     *  there is no file at PATH. */
+    public static String lookup(String id, String path) {
+        Entry entry = entryAt(id, path);
+        return entry == null || entry.isTree() ? null : entry.id;
+    }
+
+    /** Returns the ID of the blob or tree at PATH in the tree with ID, or
+     *  null if there is nothing at PATH or ID is null. */
+    public static String entryID(String id, String path) {
+        Entry entry = entryAt(id, path);
+        return entry == null ? null : entry.id;
+    }
+
+    /** Returns the entry at the absolute PATH in the tree with ID, or null
+     *  if there is none. */
+    private static Entry entryAt(String id, String path) {
+        String relative = relativePath(Repository.CWD, path);
+        while (true) {
+            int slash = relative.indexOf(File.separatorChar);
+            String name = slash < 0 ? relative : relative.substring(0, slash);
+            Entry entry = entriesOf(id).get(name);
+            if (entry == null || slash < 0) {
+                return entry;
+            } else if (!entry.isTree()) {
+                return null;
+            }
+            id = entry.id;
+            relative = relative.substring(slash + 1);
+        }
+    }
+
+    /** Returns a mapping of the absolute path of every file in the tree with
+     *  ID to its blob ID. */
+    public static SortedMap<String, String> files(String id) {
+        SortedMap<String, String> result = new TreeMap<>();
+        addFiles(id, Repository.CWD, result);
+        return result;
+    }
+
+    /** Adds the files of the tree with ID, the contents of DIR, to RESULT. */
+    private static void addFiles(String id, File dir, Map<String, String> result) {
+        for (Map.Entry<String, Entry> entry : entriesOf(id).entrySet()) {
+            File file = new File(dir, entry.getKey());
+            if (entry.getValue().isTree()) {
+                addFiles(entry.getValue().id, file, result);
+            } else {
+                result.put(file.getPath(), entry.getValue().id);
+            }
+        }
+    }
+
+    /** Returns a mapping of every blob reachable from the trees with IDS to
+     *  the absolute path of a file it appears as. Trees shared by several
+     *  of them are only read once. */
+    public static Map<String, String> blobPaths(Collection<String> ids) {
+        Map<String, String> result = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (String id : ids) {
+            addBlobPaths(id, Repository.CWD, result, seen);
+        }
+        return result;
+    }
+
+    /** Adds the blobs of the tree with ID, the contents of DIR, to RESULT
+     *  unless the tree is in SEEN. */
+    private static void addBlobPaths(String id, File dir, Map<String, String> result,
+                                     Set<String> seen) {
+        if (!seen.add(id)) {
+            return;
+        }
+        for (Map.Entry<String, Entry> entry : entriesOf(id).entrySet()) {
+            File file = new File(dir, entry.getKey());
+            if (entry.getValue().isTree()) {
+                addBlobPaths(entry.getValue().id, file, result, seen);
+            } else {
+                result.putIfAbsent(entry.getValue().id, file.getPath());
+            }
+        }
+    }
+
+    /** Adds the tree with ID and every tree and blob reachable from it to
+     *  OBJECTS, with their types, except the objects in EXCLUDE. Trees
+     *  already in OBJECTS or in EXCLUDE are not read, so a subtree shared
+     *  by many trees is visited once. */
+    public static void collect(String id, Set<String> exclude, Map<String, ObjectType> objects) {
+        if (exclude.contains(id) || objects.put(id, ObjectType.TREE) != null) {
+            return;
+        }
+        for (Entry entry : entriesOf(id).values()) {
+            if (entry.isTree()) {
+                collect(entry.id, exclude, objects);
+            } else if (!exclude.contains(entry.id)) {
+                objects.put(entry.id, ObjectType.BLOB);
+            }
+        }
+    }
+
+    /** Returns the files that differ between the trees with IDs FROM and TO,
+     *  mapping each absolute path to its blob ID in TO, or to null if it is
+     *  not in TO. Subtrees with the same ID in both are skipped unread. */
+    @SuppressWarnings("try")
+    public static SortedMap<String, String> diff(String from, String to) {
+        try (Trace.Span span = Trace.span("tree-diff")) {
+            SortedMap<String, String> result = new TreeMap<>();
+            diff(from, to, Repository.CWD, result);
+            return result;
+        }
+    }
+
+    /** Adds the differences between the trees FROM and TO, both the
+     *  contents of DIR, to RESULT. */
+    private static void diff(String from, String to, File dir, Map<String, String> result) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        SortedMap<String, Entry> fromEntries = entriesOf(from);
+        SortedMap<String, Entry> toEntries = entriesOf(to);
+        for (Map.Entry<String, Entry> entry : fromEntries.entrySet()) {
+            Entry old = entry.getValue();
+            Entry current = toEntries.get(entry.getKey());
+            if (old.sameAs(current)) {
+                continue;
+            }
+            File file = new File(dir, entry.getKey());
+            if (old.isTree()) {
+                diff(old.id, current != null && current.isTree() ? current.id : null, file, result);
+            } else {
+                result.put(file.getPath(), current != null && !current.isTree() ? current.id : null);
+            }
+        }
+        for (Map.Entry<String, Entry> entry : toEntries.entrySet()) {
+            Entry old = fromEntries.get(entry.getKey());
+            Entry current = entry.getValue();
+            File file = new File(dir, entry.getKey());
+            if (current.isTree() && (old == null || !old.isTree())) {
+                addFiles(current.id, file, result);
+            } else if (!current.isTree() && (old == null || old.isTree())) {
+                result.put(file.getPath(), current.id);
+            }
+        }
+    }
+
+    /** Returns PATH relative to DIR, which must contain it. */
+    private static String relativePath(File dir, String path) {
+        String prefix = dir.getPath() + File.separator;
+        if (!path.startsWith(prefix)) {
+            throw error("%s is outside the repository.", path);
+        }
+        return path.substring(prefix.length());
+    }
+}
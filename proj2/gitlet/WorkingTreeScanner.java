@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Computes the blob IDs of many working files in parallel on a fork-join
+ *  pool. The file list is split in halves until pieces are small enough to
+ *  hash on one thread, and the results are merged back into a map sorted by
+ *  path, so callers see the same deterministic order as a sequential scan.
+ *
+ *  Listing the working tree is parallel in the same way: each subdirectory
+ *  is walked by a task of its own, forked while its parent lists the rest.
+ *
+ *  The degree of parallelism is taken from the GITLET_THREADS environment
+ *  variable, defaulting to the number of available processors.
+ *  @author Boheng Mao
+ */
+class WorkingTreeScanner {
+    /** Pieces of at most this many files are hashed on one thread. */
+    private static final int THRESHOLD = 8;
+
+    /** Returns the number of threads used to scan the working tree. */
+    static int parallelism() {
+        String value = System.getenv("GITLET_THREADS");
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException excp) {
+                // Fall back to the default below.
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Returns the blob IDs of FILES, which must exist, keyed by path and in
+     *  lexicographic order. IDs are taken from INDEX when the stat data of a
+     *  file is unchanged, and recorded in INDEX otherwise. If STORE, the
+     *  contents of every file are also stored in the object store. */
+    @SuppressWarnings("try")
+    static SortedMap<String, String> scan(List<File> files, Index index, boolean store) {
+        try (Trace.Span span = Trace.span("scan")) {
+            if (files.size() <= THRESHOLD) {
+                return new ScanTask(files, index, store).compute();
+            }
+            ForkJoinPool pool = new ForkJoinPool(parallelism());
+            try {
+                return pool.invoke(new ScanTask(files, index, store));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Returns the plain files in DIR and its subdirectories, leaving out
+     *  SKIP and symbolic links to directories, in lexicographic order of
+     *  their paths. */
+    @SuppressWarnings("try")
+    static List<File> walk(File dir, File skip) {
+        try (Trace.Span span = Trace.span("walk")) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism());
+            List<File> files;
+            try {
+                files = pool.invoke(new WalkTask(dir, skip));
+            } finally {
+                pool.shutdown();
+            }
+            files.sort(Comparator.comparing(File::getPath));
+            return files;
+        }
+    }
+
+    /** Returns the blob ID of FILE, storing its contents if STORE. */
+    private static String blobID(File file, Index index, boolean store) {
+        String blobID = index.lookup(file);
+        if (blobID != null && (!store || ObjectStore.contains(ObjectType.BLOB, blobID))) {
+            return blobID;
+        }
+        blobID = store ? Blob.store(file).id : new Blob(file).id;
+        index.record(file, blobID);
+        return blobID;
+    }
+
+    /** Hashes a slice of the file list, splitting it if it is too long. */
+    private static class ScanTask extends RecursiveTask<SortedMap<String, String>> {
+        private static final long serialVersionUID = 5175424599717512066L;
+        private final List<File> files;
+        private final Index index;
+        private final boolean store;
+
+        ScanTask(List<File> files, Index index, boolean store) {
+            this.files = files;
+            this.index = index;
+            this.store = store;
+        }
+
+        @Override
+        protected SortedMap<String, String> compute() {
+            if (files.size() <= THRESHOLD) {
+                SortedMap<String, String> result = new TreeMap<>();
+                for (File file : files) {
+                    result.put(file.getPath(), blobID(file, index, store));
+                }
+                return result;
+            }
+            int mid = files.size() / 2;
+            ScanTask left = new ScanTask(files.subList(0, mid), index, store);
+            ScanTask right = new ScanTask(files.subList(mid, files.size()), index, store);
+            left.fork();
+            SortedMap<String, String> result = right.compute();
+            result.putAll(left.join());
+            return result;
+        }
+    }
+
+    /** Lists the plain files under one directory, forking a task for each
+     *  subdirectory. */
+    private static class WalkTask extends RecursiveTask<List<File>> {
+        private static final long serialVersionUID = 3326958361048011247L;
+        private final File dir;
+        private final File skip;
+
+        WalkTask(File dir, File skip) {
+            this.dir = dir;
+            this.skip = skip;
+        }
+
+        @Override
+        protected List<File> compute() {
+            List<WalkTask> subtasks = new ArrayList<>();
+            File[] subdirs = dir.listFiles(File::isDirectory);
+            if (subdirs != null) {
+                for (File subdir : subdirs) {
+                    if (!subdir.equals(skip) && !Files.isSymbolicLink(subdir.toPath())) {
+                        WalkTask task = new WalkTask(subdir, skip);
+                        task.fork();
+                        subtasks.add(task);
+                    }
+                }
+            }
+            List<File> result = new ArrayList<>();
+            for (String name : Utils.plainFilenamesIn(dir)) {
+                result.add(Utils.join(dir, name));
+            }
+            for (WalkTask task : subtasks) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Writes many blobs to their working files in parallel on a fork-join
+ *  pool, the counterpart of WorkingTreeScanner for checkout and reset. Each
+ *  blob is streamed from the object store straight into its file, and the
+ *  new stat data of every file written can be recorded in the index, so
+ *  the next status or add does not read the file again.
+ *
+ *  Uses as many threads as WorkingTreeScanner.
+ *  @author Boheng Mao
+ */
+class WorkingTreeWriter {
+    /** Pieces of at most this many files are written on one thread. */
+    private static final int THRESHOLD = 8;
+
+    /** Writes the blob with each ID in BLOBS to the file at its path, and
+     *  records it in INDEX unless INDEX is null. */
+    @SuppressWarnings("try")
+    static void write(Map<String, String> blobs, Index index) {
+        try (Trace.Span span = Trace.span("write-files")) {
+            List<Map.Entry<String, String>> entries = new ArrayList<>(blobs.entrySet());
+            if (entries.size() <= THRESHOLD) {
+                new WriteTask(entries, index).compute();
+                return;
+            }
+            ForkJoinPool pool = new ForkJoinPool(WorkingTreeScanner.parallelism());
+            try {
+                pool.invoke(new WriteTask(entries, index));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Writes a slice of the blobs, splitting it if it is too long. */
+    private static class WriteTask extends RecursiveAction {
+        private static final long serialVersionUID = -8741953608923249736L;
+        private final List<Map.Entry<String, String>> entries;
+        private final Index index;
+
+        WriteTask(List<Map.Entry<String, String>> entries, Index index) {
+            this.entries = entries;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            if (entries.size() <= THRESHOLD) {
+                for (Map.Entry<String, String> entry : entries) {
+                    File file = new File(entry.getKey());
+                    Blob.getFromFIle(entry.getValue()).writeTo(file);
+                    if (index != null) {
+                        index.record(file, entry.getValue());
+                    }
+                }
+                return;
+            }
+            int mid = entries.size() / 2;
+            WriteTask left = new WriteTask(entries.subList(0, mid), index);
+            WriteTask right = new WriteTask(entries.subList(mid, entries.size()), index);
+            invokeAll(left, right);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+#!/usr/bin/env python3
+"""Tests the gitlet daemon through gitlet-client.
+
+Usage: python3 daemon-test.py [--progdir=DIR]
+
+Starts "gitlet daemon" in a new repository in a temporary directory, runs
+commands through ../gitlet-client and compares their output and exit status
+with what gitlet.Main prints. Also checks that a client that connects and
+sends nothing does not hold up the others, and that "daemon stop" ends the
+daemon. The tester cannot do this, as it runs one command at a time in the
+foreground.
+
+--progdir=DIR is the directory holding the gitlet package, as for
+tester.py; it defaults to the CLASSPATH, or the parent of this directory.
+"""
+
+import os
+import shutil
+import socket
+import subprocess
+import sys
+import tempfile
+import time
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+CLIENT = os.path.join(HERE, "..", "gitlet-client")
+SRC = os.path.join(HERE, "src")
+
+
+def fail(message):
+    print("FAILED ({})".format(message))
+    sys.exit(1)
+
+
+def client(env, *args):
+    """Runs ARGS through gitlet-client, returning its status and output."""
+    try:
+        result = subprocess.run([sys.executable, CLIENT] + list(args), env=env,
+                                stdout=subprocess.PIPE, stderr=subprocess.PIPE,
+                                universal_newlines=True, timeout=30)
+    except subprocess.TimeoutExpired:
+        fail("gitlet {} timed out".format(" ".join(args)))
+    return result.returncode, result.stdout, result.stderr
+
+
+def expect(env, args, output, status=0):
+    got_status, got_output, errors = client(env, *args)
+    if got_status != status or got_output != output:
+        fail("gitlet {}: status {}, output {!r}{}".format(
+            " ".join(args), got_status, got_output,
+            ", errors " + repr(errors) if errors else ""))
+
+
+def main(args):
+    classpath = os.environ.get("CLASSPATH", os.path.join(HERE, ".."))
+    for arg in args:
+        if arg.startswith("--progdir="):
+            classpath = arg[len("--progdir="):]
+        else:
+            print(__doc__)
+            sys.exit(1)
+    env = dict(os.environ, GITLET_CLASSPATH=classpath)
+    work = tempfile.mkdtemp(prefix="daemon-test")
+    os.chdir(work)
+    subprocess.run(["java", "-ea", "-cp", classpath, "gitlet.Main", "init"],
+                   check=True, stdout=subprocess.DEVNULL)
+    daemon = subprocess.Popen(["java", "-ea", "-cp", classpath, "gitlet.Main", "daemon"],
+                              stdout=subprocess.PIPE, stderr=subprocess.STDOUT,
+                              universal_newlines=True)
+    try:
+        socket_path = os.path.join(".gitlet", "daemon.sock")
+        for _ in range(100):
+            if os.path.exists(socket_path):
+                break
+            time.sleep(0.1)
+        else:
+            fail("the daemon did not start")
+
+        shutil.copy(os.path.join(SRC, "wug.txt"), "wug.txt")
+        expect(env, ["add", "wug.txt"], "")
+        expect(env, ["commit", "added wug"], "")
+        expect(env, ["find", "added wug"], client(env, "log")[1].split("\n")[1][7:] + "\n")
+        expect(env, ["checkout", "nosuch"], "No such branch exists.\n")
+        expect(env, ["daemon"], "A gitlet daemon is already running in this repository.\n")
+
+        # A client that connects and sends nothing is dropped, and the
+        # others are served meanwhile.
+        idle = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+        idle.connect(socket_path)
+        start = time.time()
+        expect(env, ["status"], "=== Branches ===\n*master\n\n=== Staged Files ===\n\n"
+               "=== Removed Files ===\n\n=== Modifications Not Staged For Commit ===\n\n"
+               "=== Untracked Files ===\n\n")
+        if time.time() - start > 15:
+            fail("an idle client held up the daemon")
+        idle.close()
+
+        # A client in another directory runs the command itself.
+        os.mkdir("other")
+        os.chdir("other")
+        expect(env, ["status"], "Not in an initialized Gitlet directory.\n")
+        os.chdir(work)
+
+        expect(env, ["daemon", "stop"], "")
+        try:
+            daemon.wait(timeout=10)
+        except subprocess.TimeoutExpired:
+            fail("daemon stop did not end the daemon")
+        if os.path.exists(socket_path):
+            fail("the daemon left its socket behind")
+    finally:
+        if daemon.poll() is None:
+            daemon.kill()
+        os.chdir(HERE)
+        shutil.rmtree(work, ignore_errors=True)
+    print("daemon-test: OK")
+
+
+if __name__ == "__main__":
+    main(sys.argv[1:])